@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Micro benchmarks for the hot paths of {@link FreeTypeFont}.
+ * 
+ * <p>Each benchmark is warmed up before it is measured. The time and - if
+ * supported by the JVM - the number of allocated bytes are reported per
+ * operation, together with the number of garbage collections and their
+ * time during the measured rounds.</p>
+ * 
+ * <p>The benchmarks are not part of the library jar. Run them with
+ * {@code ant bench -Dbench.font=<font-file>}.</p>
+ *
+ * @author Matthias Mann
+ */
+public class Benchmark {
+
+    private static final long WARMUP_NANOS = 1000L * 1000 * 1000;
+    private static final int MEASURE_ROUNDS = 5;
+
+    private final ThreadMXBean threadBean;
+    private final Method allocatedBytesMethod;
+    private final List<GarbageCollectorMXBean> gcBeans;
+    private final long roundNanos;
+
+    public Benchmark(long roundMillis) {
+        this.threadBean = ManagementFactory.getThreadMXBean();
+        this.gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+        this.allocatedBytesMethod = findAllocatedBytesMethod(threadBean);
+        this.roundNanos = roundMillis * 1000L * 1000L;
+    }
+
+    @SuppressWarnings("CallToThreadDumpStack")
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0) {
+            System.err.println("Usage: ant bench -Dbench.font=<font-file> [-Dbench.round.ms=<ms-per-round>]");
+            System.exit(1);
+        }
+
+        final File file = new File(args[0]);
+        Benchmark benchmark = new Benchmark((args.length > 1) ? Long.parseLong(args[1]) : 500);
+
+        final FreeTypeFont font = FreeTypeFont.create(file);
+        try {
+            font.setCharSize(0, 14.0f, 72, 72);
+
+            final int[] codePoints = collectCodePoints(font);
+            final int[] glyphs = new int[codePoints.length];
+            for(int i=0 ; i<codePoints.length ; i++) {
+                glyphs[i] = font.getGlyphForCodePoint(codePoints[i]);
+            }
+            System.out.printf("Font: %s %s, %d code points\n", font.getFamilyName(), font.getStyleName(), codePoints.length);
+            System.out.printf("%-40s %12s %12s %6s %8s\n", "benchmark", "ns/op", "bytes/op", "gcs", "gc-ms");
+
+            for(final FreeTypeFont.LoadTarget target : FreeTypeFont.LoadTarget.values()) {
+                benchmark.run("loadGlyph " + target, new Task() {
+                    int run() throws IOException {
+                        for(int glyph : glyphs) {
+                            font.loadGlyph(glyph, target);
+                        }
+                        return glyphs.length;
+                    }
+                });
+            }
+
+            benchmark.run("loadGlyph FT_LOAD_DEFAULT", new Task() {
+                int run() throws IOException {
+                    for(int glyph : glyphs) {
+                        font.loadGlyph(glyph, FT2Library.FT_LOAD_DEFAULT);
+                    }
+                    return glyphs.length;
+                }
+            });
+
+            benchmark.run("getGlyphForCodePoint", new Task() {
+                int run() throws IOException {
+                    int sum = 0;
+                    for(int codePoint : codePoints) {
+                        sum += font.getGlyphForCodePoint(codePoint);
+                    }
+                    blackhole(sum);
+                    return codePoints.length;
+                }
+            });
+
+            final int numPairs = Math.min(glyphs.length, 128);
+            benchmark.run("getKerning", new Task() {
+                int run() throws IOException {
+                    int sum = 0;
+                    for(int i=0 ; i<numPairs ; i++) {
+                        for(int j=0 ; j<numPairs ; j++) {
+                            sum += font.getKerning(glyphs[i], glyphs[j]).x;
+                        }
+                    }
+                    blackhole(sum);
+                    return numPairs * numPairs;
+                }
+            });
+
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 256 * 4);
+            final byte[] array = new byte[256 * 256];
+            final byte[] bgColor = new byte[] { 0, 0, 0, 0 };
+            final byte[] fgColor = new byte[] { (byte)255, (byte)255, (byte)255, (byte)255 };
+            final BufferedImage grayImage = new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_GRAY);
+            final BufferedImage argbImage = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+            final int glyph = font.getGlyphForCodePoint('W');
+
+            benchmark.run("copyGlyphToByteBuffer", new Task() {
+                int run() throws IOException {
+                    font.loadGlyph(glyph);
+                    for(int i=0 ; i<100 ; i++) {
+                        buffer.clear();
+                        font.copyGlyphToByteBuffer(buffer, 256);
+                    }
+                    return 100;
+                }
+            });
+            for(final int channels : new int[] { 1, 3, 4 }) {
+                final byte[] bg = new byte[channels];
+                final byte[] fg = new byte[channels];
+                System.arraycopy(bgColor, 0, bg, 0, channels);
+                System.arraycopy(fgColor, 0, fg, 0, channels);
+                benchmark.run("copyGlyphToByteBufferColor " + channels + "ch", new Task() {
+                    int run() throws IOException {
+                        font.loadGlyph(glyph);
+                        for(int i=0 ; i<100 ; i++) {
+                            buffer.clear();
+                            font.copyGlyphToByteBufferColor(buffer, 256*channels, bg, fg);
+                        }
+                        return 100;
+                    }
+                });
+            }
+            benchmark.run("copyGlyphToByteArray", new Task() {
+                int run() throws IOException {
+                    font.loadGlyph(glyph);
+                    for(int i=0 ; i<100 ; i++) {
+                        font.copyGlyphToByteArray(array, 0, 256);
+                    }
+                    return 100;
+                }
+            });
+            benchmark.run("copyGlpyhToBufferedImage GRAY", new Task() {
+                int run() throws IOException {
+                    font.loadGlyph(glyph);
+                    for(int i=0 ; i<100 ; i++) {
+                        font.copyGlpyhToBufferedImage(grayImage, 0, 0, Color.WHITE);
+                    }
+                    return 100;
+                }
+            });
+            benchmark.run("copyGlpyhToBufferedImage ARGB", new Task() {
+                int run() throws IOException {
+                    font.loadGlyph(glyph);
+                    for(int i=0 ; i<100 ; i++) {
+                        font.copyGlpyhToBufferedImage(argbImage, 0, 0, Color.WHITE);
+                    }
+                    return 100;
+                }
+            });
+
+            benchmark.run("iterateCodePoints", new Task() {
+                int run() throws IOException {
+                    int count = 0;
+                    FreeTypeCodePointIterator iter = font.iterateCodePoints();
+                    while(iter.nextCodePoint()) {
+                        count++;
+                    }
+                    return count;
+                }
+            });
+
+            benchmark.run("create(File)", new Task() {
+                int run() throws IOException {
+                    FreeTypeFont.create(file).close();
+                    return 1;
+                }
+            });
+            benchmark.run("createMapped(File)", new Task() {
+                int run() throws IOException {
+                    FreeTypeFont.createMapped(file).close();
+                    return 1;
+                }
+            });
+            benchmark.run("create(InputStream)", new Task() {
+                int run() throws IOException {
+                    InputStream is = new BufferedInputStream(new FileInputStream(file));
+                    try {
+                        FreeTypeFont.create(is).close();
+                    } finally {
+                        is.close();
+                    }
+                    return 1;
+                }
+            });
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } finally {
+            font.close();
+        }
+    }
+
+    /**
+     * Runs the task until the warmup time has elapsed, then measures
+     * several rounds and prints the best round.
+     * 
+     * @param name the name of the benchmark
+     * @param task the task to measure
+     */
+    void run(String name, Task task) {
+        try {
+            measure(name, task);
+        } catch (IOException ex) {
+            System.out.printf("%-40s failed: %s\n", name, ex.getMessage());
+        }
+    }
+
+    private void measure(String name, Task task) throws IOException {
+        long start = System.nanoTime();
+        do {
+            task.run();
+        } while(System.nanoTime() - start < WARMUP_NANOS);
+
+        double bestNanos = Double.MAX_VALUE;
+        double bestBytes = Double.MAX_VALUE;
+        long gcCountBefore = getGCCount();
+        long gcTimeBefore = getGCTime();
+        for(int round=0 ; round<MEASURE_ROUNDS ; round++) {
+            long ops = 0;
+            long bytesBefore = getAllocatedBytes();
+            long roundStart = System.nanoTime();
+            long elapsed;
+            do {
+                ops += task.run();
+                elapsed = System.nanoTime() - roundStart;
+            } while(elapsed < roundNanos);
+            long bytes = getAllocatedBytes() - bytesBefore;
+            if(ops > 0) {
+                bestNanos = Math.min(bestNanos, (double)elapsed / ops);
+                bestBytes = Math.min(bestBytes, (double)bytes / ops);
+            }
+        }
+
+        long gcCount = getGCCount() - gcCountBefore;
+        long gcTime = getGCTime() - gcTimeBefore;
+
+        if(allocatedBytesMethod != null) {
+            System.out.printf("%-40s %12.1f %12.1f %6d %8d\n", name, bestNanos, bestBytes, gcCount, gcTime);
+        } else {
+            System.out.printf("%-40s %12.1f %12s %6d %8d\n", name, bestNanos, "n/a", gcCount, gcTime);
+        }
+    }
+
+    /**
+     * A benchmark task.
+     */
+    static abstract class Task {
+        /**
+         * Executes the task once
+         * @return the number of operations performed
+         * @throws IOException if an error occured
+         */
+        abstract int run() throws IOException;
+    }
+
+    static volatile int blackhole;
+
+    static void blackhole(int value) {
+        blackhole += value;
+    }
+
+    private long getAllocatedBytes() {
+        if(allocatedBytesMethod != null) {
+            try {
+                return (Long)allocatedBytesMethod.invoke(threadBean, Thread.currentThread().getId());
+            } catch (Exception ex) {
+                // ignore - reported as 0
+            }
+        }
+        return 0;
+    }
+
+    private long getGCCount() {
+        long count = 0;
+        for(GarbageCollectorMXBean bean : gcBeans) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private long getGCTime() {
+        long time = 0;
+        for(GarbageCollectorMXBean bean : gcBeans) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static Method findAllocatedBytesMethod(ThreadMXBean bean) {
+        try {
+            // com.sun.management.ThreadMXBean - available on HotSpot since 6u25
+            Class<?> beanInterface = Class.forName("com.sun.management.ThreadMXBean");
+            Method m = beanInterface.getMethod("getThreadAllocatedBytes", long.class);
+            m.invoke(bean, Thread.currentThread().getId());
+            return m;
+        } catch (Throwable ex) {
+            return null;
+        }
+    }
+
+    private static int[] collectCodePoints(FreeTypeFont font) throws IOException {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        FreeTypeCodePointIterator iter = font.iterateCodePoints();
+        while(iter.nextCodePoint()) {
+            list.add(iter.getCodePoint());
+        }
+        int[] result = new int[list.size()];
+        for(int i=0 ; i<result.length ; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Backend using {@code java.lang.foreign} downcalls.
+ * 
+ * <p>This class needs Java 22 and is compiled into the versioned part of
+ * the multi-release jar. It is created by name from {@link FT2Helper} when
+ * the system property {@value FT2Backend#BACKEND_PROPERTY} is {@code "ffm"}.
+ * Depending on the JVM this requires {@code --enable-native-access}.</p>
+ * 
+ * <p>The method handles are kept in static final fields of
+ * {@link Downcalls} so the JIT treats them as constants. Field offsets are
+ * computed from a {@link StructLayout} of FT_GlyphSlotRec.</p>
+ *
+ * @author Matthias Mann
+ */
+final class FT2ForeignBackend implements FT2Backend {
+
+    static final String NAME = "ffm";
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final MemoryLayout C_LONG = LINKER.canonicalLayouts().get("long");
+    private static final ValueLayout ADDRESS = ValueLayout.ADDRESS;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT;
+
+    /** all of the address space - offsets are absolute addresses */
+    private static final MemorySegment MEMORY = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+
+    private static final StructLayout FT_GLYPHSLOT = glyphSlotLayout();
+
+    /** the library used by {@link Downcalls} - set before it is initialized */
+    private static String libraryPath;
+
+    /**
+     * Creates the backend.
+     * 
+     * @param libPath the FreeType2 library file which JNA has loaded
+     * @throws IllegalArgumentException if the library could not be loaded
+     */
+    FT2ForeignBackend(String libPath) {
+        synchronized(FT2ForeignBackend.class) {
+            if(libraryPath == null) {
+                libraryPath = libPath;
+            }
+        }
+        Downcalls.init();
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public int FT_Activate_Size(long size) {
+        try {
+            return (int)Downcalls.FT_Activate_Size.invokeExact(MemorySegment.ofAddress(size));
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    public int FT_Set_Pixel_Sizes(long face, int pixel_width, int pixel_height) {
+        try {
+            return (int)Downcalls.FT_Set_Pixel_Sizes.invokeExact(MemorySegment.ofAddress(face), pixel_width, pixel_height);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    public int FT_Load_Glyph(long face, int glyph_index, int load_flags) {
+        try {
+            return (int)Downcalls.FT_Load_Glyph.invokeExact(MemorySegment.ofAddress(face), glyph_index, load_flags);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    public int FT_Load_Char(long face, int char_code, int load_flags) {
+        try {
+            return (int)Downcalls.FT_Load_Char.invokeExact(MemorySegment.ofAddress(face), char_code, load_flags);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    public int FT_Get_Char_Index(long face, int char_code) {
+        try {
+            return (int)Downcalls.FT_Get_Char_Index.invokeExact(MemorySegment.ofAddress(face), char_code);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    public int FT_Get_First_Char(long face, long agindex) {
+        try {
+            return (int)Downcalls.FT_Get_First_Char.invokeExact(MemorySegment.ofAddress(face), MemorySegment.ofAddress(agindex));
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    public int FT_Get_Next_Char(long face, int char_code, long agindex) {
+        try {
+            return (int)Downcalls.FT_Get_Next_Char.invokeExact(MemorySegment.ofAddress(face), char_code, MemorySegment.ofAddress(agindex));
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    public int FT_Get_Kerning(long face, int left_glyph, int right_glyph, int kern_mode, long akerning) {
+        try {
+            return (int)Downcalls.FT_Get_Kerning.invokeExact(MemorySegment.ofAddress(face), left_glyph, right_glyph, kern_mode, MemorySegment.ofAddress(akerning));
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    public int getGlyphSlotOffset(String field) {
+        String[] names = field.split("\\.");
+        PathElement[] path = new PathElement[names.length];
+        for(int i=0 ; i<names.length ; i++) {
+            path[i] = PathElement.groupElement(names[i]);
+        }
+        return (int)FT_GLYPHSLOT.byteOffset(path);
+    }
+
+    public byte getByte(long address) {
+        return MEMORY.get(ValueLayout.JAVA_BYTE, address);
+    }
+
+    public short getShort(long address) {
+        return MEMORY.get(ValueLayout.JAVA_SHORT_UNALIGNED, address);
+    }
+
+    public int getInt(long address) {
+        return MEMORY.get(ValueLayout.JAVA_INT_UNALIGNED, address);
+    }
+
+    public long getNativeLong(long address) {
+        if(C_LONG.byteSize() == 8) {
+            return MEMORY.get(ValueLayout.JAVA_LONG_UNALIGNED, address);
+        } else {
+            return MEMORY.get(ValueLayout.JAVA_INT_UNALIGNED, address);
+        }
+    }
+
+    public long getAddress(long address) {
+        return MEMORY.get(ValueLayout.ADDRESS_UNALIGNED, address).address();
+    }
+
+    public ByteBuffer getByteBuffer(long address, int size) {
+        return MemorySegment.ofAddress(address).reinterpret(size).asByteBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    private static RuntimeException rethrow(Throwable ex) {
+        if(ex instanceof RuntimeException) {
+            return (RuntimeException)ex;
+        }
+        if(ex instanceof Error) {
+            throw (Error)ex;
+        }
+        return new IllegalStateException(ex);
+    }
+
+    /**
+     * Builds a struct layout and inserts the padding required by the C ABI.
+     */
+    private static StructLayout struct(MemoryLayout ... members) {
+        ArrayList<MemoryLayout> list = new ArrayList<MemoryLayout>();
+        long offset = 0;
+        long align = 1;
+        for(MemoryLayout m : members) {
+            long a = m.byteAlignment();
+            long pad = (a - offset % a) % a;
+            if(pad > 0) {
+                list.add(MemoryLayout.paddingLayout(pad));
+                offset += pad;
+            }
+            list.add(m);
+            offset += m.byteSize();
+            align = Math.max(align, a);
+        }
+        long pad = (align - offset % align) % align;
+        if(pad > 0) {
+            list.add(MemoryLayout.paddingLayout(pad));
+        }
+        return MemoryLayout.structLayout(list.toArray(new MemoryLayout[list.size()]));
+    }
+
+    private static StructLayout glyphSlotLayout() {
+        StructLayout generic = struct(
+                ADDRESS.withName("data"),
+                ADDRESS.withName("finalizer"));
+        StructLayout metrics = struct(
+                C_LONG.withName("width"),
+                C_LONG.withName("height"),
+                C_LONG.withName("horiBearingX"),
+                C_LONG.withName("horiBearingY"),
+                C_LONG.withName("horiAdvance"),
+                C_LONG.withName("vertBearingX"),
+                C_LONG.withName("vertBearingY"),
+                C_LONG.withName("vertAdvance"));
+        StructLayout vector = struct(
+                C_LONG.withName("x"),
+                C_LONG.withName("y"));
+        StructLayout bitmap = struct(
+                INT.withName("rows"),
+                INT.withName("width"),
+                INT.withName("pitch"),
+                ADDRESS.withName("buffer"),
+                ValueLayout.JAVA_SHORT.withName("num_grays"),
+                ValueLayout.JAVA_BYTE.withName("pixel_mode"),
+                ValueLayout.JAVA_BYTE.withName("palette_mode"),
+                ADDRESS.withName("palette"));
+        StructLayout outline = struct(
+                ValueLayout.JAVA_SHORT.withName("n_contours"),
+                ValueLayout.JAVA_SHORT.withName("n_points"),
+                ADDRESS.withName("points"),
+                ADDRESS.withName("tags"),
+                ADDRESS.withName("contours"),
+                INT.withName("flags"));
+        return struct(
+                ADDRESS.withName("library"),
+                ADDRESS.withName("face"),
+                ADDRESS.withName("next"),
+                INT.withName("reserved"),
+                generic.withName("generic"),
+                metrics.withName("metrics"),
+                C_LONG.withName("linearHoriAdvance"),
+                C_LONG.withName("linearVertAdvance"),
+                vector.withName("advance"),
+                INT.withName("format"),
+                bitmap.withName("bitmap"),
+                INT.withName("bitmap_left"),
+                INT.withName("bitmap_top"),
+                outline.withName("outline"),
+                INT.withName("num_subglyphs"),
+                ADDRESS.withName("subglyphs"),
+                ADDRESS.withName("control_data"),
+                C_LONG.withName("control_len"),
+                C_LONG.withName("lsb_delta"),
+                C_LONG.withName("rsb_delta"),
+                ADDRESS.withName("other"),
+                ADDRESS.withName("internal"));
+    }
+
+    /**
+     * The downcall handles. FT_ULong arguments and results use the size of
+     * a C long and are adapted to int, handles are passed as MemorySegment.
+     */
+    static final class Downcalls {
+        private static final SymbolLookup LOOKUP = SymbolLookup.libraryLookup(libraryPath, Arena.global());
+
+        static final MethodHandle FT_Activate_Size = downcall("FT_Activate_Size",
+                MethodType.methodType(int.class, MemorySegment.class),
+                INT, ADDRESS);
+        static final MethodHandle FT_Set_Pixel_Sizes = downcall("FT_Set_Pixel_Sizes",
+                MethodType.methodType(int.class, MemorySegment.class, int.class, int.class),
+                INT, ADDRESS, INT, INT);
+        static final MethodHandle FT_Load_Glyph = downcall("FT_Load_Glyph",
+                MethodType.methodType(int.class, MemorySegment.class, int.class, int.class),
+                INT, ADDRESS, INT, INT);
+        static final MethodHandle FT_Load_Char = downcall("FT_Load_Char",
+                MethodType.methodType(int.class, MemorySegment.class, int.class, int.class),
+                INT, ADDRESS, C_LONG, INT);
+        static final MethodHandle FT_Get_Char_Index = downcall("FT_Get_Char_Index",
+                MethodType.methodType(int.class, MemorySegment.class, int.class),
+                INT, ADDRESS, C_LONG);
+        static final MethodHandle FT_Get_First_Char = downcall("FT_Get_First_Char",
+                MethodType.methodType(int.class, MemorySegment.class, MemorySegment.class),
+                C_LONG, ADDRESS, ADDRESS);
+        static final MethodHandle FT_Get_Next_Char = downcall("FT_Get_Next_Char",
+                MethodType.methodType(int.class, MemorySegment.class, int.class, MemorySegment.class),
+                C_LONG, ADDRESS, C_LONG, ADDRESS);
+        static final MethodHandle FT_Get_Kerning = downcall("FT_Get_Kerning",
+                MethodType.methodType(int.class, MemorySegment.class, int.class, int.class, int.class, MemorySegment.class),
+                INT, ADDRESS, INT, INT, INT, ADDRESS);
+
+        private Downcalls() {
+        }
+
+        static void init() {
+        }
+
+        private static MethodHandle downcall(String name, MethodType type, MemoryLayout result, MemoryLayout ... args) {
+            MemorySegment symbol = LOOKUP.find(name).orElseThrow(() ->
+                    new UnsatisfiedLinkError("Can't find function: " + name));
+            MethodHandle mh = LINKER.downcallHandle(symbol, FunctionDescriptor.of(result, args));
+            return MethodHandles.explicitCastArguments(mh, type);
+        }
+    }
+}
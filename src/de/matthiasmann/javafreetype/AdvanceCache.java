@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import java.io.IOException;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+import static de.matthiasmann.javafreetype.FT2Helper.*;
+
+/**
+ * Caches the horizontal advance and hinting deltas of glyphs for one size.
+ * 
+ * <p>The values are stored in pages of 256 glyphs which are allocated on
+ * demand. Each glyph uses two ints: the advance in 26.6 format and the
+ * packed {@code lsb_delta}/{@code rsb_delta}.</p>
+ *
+ * @author Matthias Mann
+ */
+final class AdvanceCache {
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    final int loadFlags;
+    private final int[][] pages;
+    private final boolean useGetAdvance;
+    private Memory advanceResult;
+
+    AdvanceCache(int numGlyphs, int loadFlags) {
+        this.loadFlags = loadFlags;
+        this.pages = new int[(numGlyphs + PAGE_MASK) >> PAGE_BITS][];
+        // FT_Get_Advance reads unhinted advances directly from the hmtx table
+        this.useGetAdvance = (loadFlags & FT_LOAD_NO_HINTING) != 0 &&
+                isVersionAtLeast(2, 3, 8);
+    }
+
+    static int getAdvance(long value) {
+        return (int)(value >> 32);
+    }
+
+    static int getLsbDelta(long value) {
+        return (int)value >> 16;
+    }
+
+    static int getRsbDelta(long value) {
+        return (short)value;
+    }
+
+    /**
+     * Returns the cached metrics of a glyph - loads the glyph if needed.
+     * 
+     * @param font the font at the size of this cache
+     * @param glyph the glyph index
+     * @return the packed metrics - use the static getters to unpack
+     * @throws IOException if the glyph could not be loaded
+     */
+    long get(FreeTypeFont font, int glyph) throws IOException {
+        int pageIdx = glyph >> PAGE_BITS;
+        if(glyph < 0 || pageIdx >= pages.length) {
+            return load(font, glyph);
+        }
+        int[] page = pages[pageIdx];
+        if(page == null) {
+            page = new int[PAGE_SIZE * 2];
+            for(int i=0 ; i<page.length ; i+=2) {
+                page[i] = UNKNOWN;
+            }
+            pages[pageIdx] = page;
+        }
+        int idx = (glyph & PAGE_MASK) * 2;
+        if(page[idx] == UNKNOWN) {
+            long value = load(font, glyph);
+            page[idx] = getAdvance(value);
+            page[idx+1] = (int)value;
+            return value;
+        }
+        return ((long)page[idx] << 32) | (page[idx+1] & 0xFFFFFFFFL);
+    }
+
+    private long load(FreeTypeFont font, int glyph) throws IOException {
+        final Pointer face = font.face.getPointer();
+        // both paths may load the glyph into the glyph slot
+        font.glyphLoaded = false;
+        if(useGetAdvance) {
+            if(advanceResult == null) {
+                advanceResult = new Memory(Native.LONG_SIZE);
+            }
+            checkReturnCode(INSTANCE.FT_Get_Advance(face, glyph, loadFlags, advanceResult));
+            // 16.16 -> 26.6
+            long advance = (getNativeLong(advanceResult, 0) + 512) >> 10;
+            return advance << 32;
+        }
+        checkReturnCode(FT_Load_Glyph(face, glyph, loadFlags));
+        final Pointer slot = font.face.glyph.getPointer();
+        long advance = FT2GlyphSlot.getAdvanceX(slot);
+        int lsb = (int)FT2GlyphSlot.getLsbDelta(slot);
+        int rsb = (int)FT2GlyphSlot.getRsbDelta(slot);
+        return (advance << 32) | (((lsb << 16) | (rsb & 0xFFFF)) & 0xFFFFFFFFL);
+    }
+}
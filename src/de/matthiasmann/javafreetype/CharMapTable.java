@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A Java copy of the unicode char map of a face.
+ * 
+ * <p>Code points of the BMP are stored in 256 entry pages which are only
+ * allocated when they contain at least one mapped code point. Code points
+ * outside the BMP are rare and stored in a sorted array.</p>
+ *
+ * @author Matthias Mann
+ */
+final class CharMapTable {
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int BMP_END = 0x10000;
+
+    private final int[][] bmpPages;
+    private final int[] astralCodePoints;
+    private final int[] astralGlyphs;
+
+    CharMapTable(FreeTypeCodePointIterator iter) throws IOException {
+        this.bmpPages = new int[BMP_END >> PAGE_BITS][];
+
+        long[] astral = new long[16];
+        int numAstral = 0;
+
+        while(iter.nextCodePoint()) {
+            int codePoint = iter.getCodePoint();
+            int glyph = iter.getGlyphIndex();
+            if(codePoint >= 0 && codePoint < BMP_END) {
+                int[] page = bmpPages[codePoint >> PAGE_BITS];
+                if(page == null) {
+                    page = new int[PAGE_SIZE];
+                    bmpPages[codePoint >> PAGE_BITS] = page;
+                }
+                page[codePoint & PAGE_MASK] = glyph;
+            } else if(codePoint >= BMP_END) {
+                if(numAstral == astral.length) {
+                    long[] tmp = new long[numAstral * 2];
+                    System.arraycopy(astral, 0, tmp, 0, numAstral);
+                    astral = tmp;
+                }
+                astral[numAstral++] = ((long)codePoint << 32) | (glyph & 0xFFFFFFFFL);
+            }
+        }
+
+        // FreeType returns code points in ascending order - but don't rely on it
+        Arrays.sort(astral, 0, numAstral);
+        this.astralCodePoints = new int[numAstral];
+        this.astralGlyphs = new int[numAstral];
+        for(int i=0 ; i<numAstral ; i++) {
+            astralCodePoints[i] = (int)(astral[i] >>> 32);
+            astralGlyphs[i] = (int)astral[i];
+        }
+    }
+
+    int get(int codePoint) {
+        if(codePoint >= 0 && codePoint < BMP_END) {
+            int[] page = bmpPages[codePoint >> PAGE_BITS];
+            return (page != null) ? page[codePoint & PAGE_MASK] : 0;
+        }
+        int idx = Arrays.binarySearch(astralCodePoints, codePoint);
+        return (idx >= 0) ? astralGlyphs[idx] : 0;
+    }
+
+    void get(int[] codePoints, int off, int len, int[] outGlyphs) {
+        for(int i=0 ; i<len ; i++) {
+            outGlyphs[i] = get(codePoints[off + i]);
+        }
+    }
+
+    int get(CharSequence text, int start, int end, int[] outGlyphs) {
+        int count = 0;
+        while(start < end) {
+            char ch = text.charAt(start++);
+            int codePoint = ch;
+            if(Character.isHighSurrogate(ch) && start < end) {
+                char low = text.charAt(start);
+                if(Character.isLowSurrogate(low)) {
+                    codePoint = Character.toCodePoint(ch, low);
+                    start++;
+                }
+            }
+            outGlyphs[count++] = get(codePoint);
+        }
+        return count;
+    }
+}
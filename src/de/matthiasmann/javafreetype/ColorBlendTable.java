@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.util.Arrays;
+
+/**
+ * Lookup table which blends between a background and a foreground color
+ * for all 256 coverage values.
+ * 
+ * <p>The table stores the blended channels of each coverage value next to
+ * each other, so a pixel is converted by copying {@code channels} bytes.
+ * Rows are blended into an internal row buffer which is then written with
+ * one bulk put.</p>
+ * 
+ * <p>This class is not thread safe.</p>
+ *
+ * @author Matthias Mann
+ */
+final class ColorBlendTable {
+
+    private final byte[] bgColor;
+    private final byte[] fgColor;
+    final int channels;
+    /** blended channels at {@code coverage*channels + channel} */
+    final byte[] table;
+    private byte[] row;
+
+    ColorBlendTable(byte[] bgColor, byte[] fgColor) {
+        if(bgColor.length != fgColor.length) {
+            throw new IllegalArgumentException("color arrays must have same length");
+        }
+        this.bgColor = bgColor.clone();
+        this.fgColor = fgColor.clone();
+        this.channels = bgColor.length;
+        this.table = new byte[256 * channels];
+
+        for(int ch=0 ; ch<channels ; ch++) {
+            int bg = bgColor[ch] & 255;
+            int diff = (fgColor[ch] & 255) - bg;
+            for(int coverage=0 ; coverage<256 ; coverage++) {
+                // map 0..255 to 0..256 so that full coverage gives exactly fgColor
+                int value = (coverage >= 0x80) ? coverage + 1 : coverage;
+                table[coverage*channels + ch] = (byte)(bg + ((diff * value) >> 8));
+            }
+        }
+    }
+
+    boolean matches(byte[] bgColor, byte[] fgColor) {
+        return Arrays.equals(this.bgColor, bgColor) && Arrays.equals(this.fgColor, fgColor);
+    }
+
+    /**
+     * Returns a row buffer for at least the specified number of pixels.
+     */
+    byte[] getRow(int width) {
+        int size = width * channels;
+        if(row == null || row.length < size) {
+            row = new byte[Math.max(size, 256)];
+        }
+        return row;
+    }
+
+    /**
+     * Blends a row of coverage values.
+     * 
+     * @param coverage the coverage values
+     * @param width the number of pixels
+     * @param dst receives {@code width * channels} bytes
+     */
+    void blendRow(byte[] coverage, int width, byte[] dst) {
+        final byte[] t = table;
+        switch(channels) {
+            case 1:
+                for(int i=0 ; i<width ; i++) {
+                    dst[i] = t[coverage[i] & 255];
+                }
+                break;
+
+            case 3:
+                for(int i=0,o=0 ; i<width ; i++,o+=3) {
+                    int idx = (coverage[i] & 255) * 3;
+                    dst[o  ] = t[idx  ];
+                    dst[o+1] = t[idx+1];
+                    dst[o+2] = t[idx+2];
+                }
+                break;
+
+            case 4:
+                for(int i=0,o=0 ; i<width ; i++,o+=4) {
+                    int idx = (coverage[i] & 255) << 2;
+                    dst[o  ] = t[idx  ];
+                    dst[o+1] = t[idx+1];
+                    dst[o+2] = t[idx+2];
+                    dst[o+3] = t[idx+3];
+                }
+                break;
+
+            default:
+                final int n = channels;
+                for(int i=0,o=0 ; i<width ; i++,o+=n) {
+                    System.arraycopy(t, (coverage[i] & 255) * n, dst, o, n);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Blends one pixel with separate coverage for the first 3 channels.
+     * Other channels use the maximum coverage.
+     */
+    void blendSubpixel(int sr, int sg, int sb, byte[] dst, int dstOff) {
+        final byte[] t = table;
+        final int n = channels;
+        if(n < 3) {
+            int max = Math.max(sr, Math.max(sg, sb));
+            for(int ch=0 ; ch<n ; ch++) {
+                dst[dstOff + ch] = t[max*n + ch];
+            }
+            return;
+        }
+        dst[dstOff  ] = t[sr*n    ];
+        dst[dstOff+1] = t[sg*n + 1];
+        dst[dstOff+2] = t[sb*n + 2];
+        if(n > 3) {
+            int max = Math.max(sr, Math.max(sg, sb));
+            for(int ch=3 ; ch<n ; ch++) {
+                dst[dstOff + ch] = t[max*n + ch];
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Internal SPI for the FreeType2 functions which are called per glyph and
+ * for reading the glyph slot and its bitmap.
+ * 
+ * <p>{@link FT2Helper} selects one implementation when the natives are
+ * loaded. The system property {@value #BACKEND_PROPERTY} can be used to
+ * request a specific backend by name. Call sites only ever see one
+ * implementation which allows the JIT to inline the calls.</p>
+ * 
+ * <p>Handles, out parameters and memory are passed as native addresses, so
+ * the SPI does not depend on JNA. The JNA backends are {@link FT2Direct}
+ * and {@link FT2ProxyBackend}, the optional {@code java.lang.foreign}
+ * backend is compiled separately for Java 22 and loaded by name. Faces,
+ * sizes and the non per glyph functions are still created and called
+ * through JNA by all backends.</p>
+ * 
+ * <p>Char codes are passed as int - FreeType uses unsigned long.</p>
+ *
+ * @author Matthias Mann
+ */
+interface FT2Backend {
+
+    /**
+     * The system property used to select the backend
+     */
+    public static final String BACKEND_PROPERTY = "de.matthiasmann.javafreetype.backend";
+
+    public String getName();
+
+    public int FT_Activate_Size(long size);
+    public int FT_Set_Pixel_Sizes(long face, int pixel_width, int pixel_height);
+    public int FT_Load_Glyph(long face, int glyph_index, int load_flags);
+    public int FT_Load_Char(long face, int char_code, int load_flags);
+    public int FT_Get_Char_Index(long face, int char_code);
+    public int FT_Get_First_Char(long face, long agindex);
+    public int FT_Get_Next_Char(long face, int char_code, long agindex);
+    public int FT_Get_Kerning(long face, int left_glyph, int right_glyph, int kern_mode, long akerning);
+
+    /**
+     * Returns the offset of a field of FT_GlyphSlotRec. Fields of nested
+     * structures are separated by a dot, eg {@code "bitmap.rows"}.
+     * 
+     * @param field the field name as used by {@link FT2Library.FT_GlyphSlot}
+     * @return the offset in bytes
+     */
+    public int getGlyphSlotOffset(String field);
+
+    public byte getByte(long address);
+    public short getShort(long address);
+    public int getInt(long address);
+
+    /**
+     * Reads a C long (eg FT_Pos or FT_Fixed)
+     */
+    public long getNativeLong(long address);
+    public long getAddress(long address);
+
+    /**
+     * Returns a view of native memory, eg a bitmap buffer.
+     * The buffer uses the native byte order.
+     */
+    public ByteBuffer getByteBuffer(long address, int size);
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashSet;
+import java.util.logging.Level;
+
+/**
+ * Releases native FreeType2 objects whose Java owner became unreachable
+ * without being closed.
+ * 
+ * <p>Each native object is tracked by a {@link Resource} - a phantom reference
+ * to its owner which holds everything needed to release it. The resource must
+ * not reference the owner. A daemon thread releases the resources of owners
+ * which have been collected. Closing the owner releases the resource
+ * immediately and unregisters it.</p>
+ * 
+ * <p>When the system property {@value #LEAK_DETECTION_PROPERTY} is set to
+ * {@code true} the allocation site of every library and face is recorded and
+ * logged when the object was not closed.</p>
+ *
+ * @author Matthias Mann
+ */
+final class FT2Cleaner {
+
+    public static final String LEAK_DETECTION_PROPERTY = "de.matthiasmann.javafreetype.leakDetection";
+
+    static final boolean LEAK_DETECTION = Boolean.getBoolean(LEAK_DETECTION_PROPERTY);
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+    private static final HashSet<Resource> REGISTERED = new HashSet<Resource>();
+    private static Thread thread;
+
+    private FT2Cleaner() {
+    }
+
+    static void register(Resource resource) {
+        synchronized(REGISTERED) {
+            REGISTERED.add(resource);
+        }
+        startThread();
+    }
+
+    static boolean unregister(Resource resource) {
+        synchronized(REGISTERED) {
+            return REGISTERED.remove(resource);
+        }
+    }
+
+    private static synchronized void startThread() {
+        if(thread == null) {
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    processQueue();
+                }
+            }, "FreeType2 Cleaner");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    static void processQueue() {
+        for(;;) {
+            Resource resource;
+            try {
+                resource = (Resource)QUEUE.remove();
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            if(!unregister(resource)) {
+                continue;
+            }
+            String leak = resource.getLeakDescription();
+            if(leak != null) {
+                if(resource.allocationSite != null) {
+                    FT2Helper.getLogger().log(Level.WARNING, leak + " was not closed", resource.allocationSite);
+                } else {
+                    FT2Helper.getLogger().log(Level.FINE, "{0} was not closed", leak);
+                }
+            }
+            try {
+                resource.release();
+            } catch (Throwable ex) {
+                FT2Helper.getLogger().log(Level.WARNING, "Can't release native object", ex);
+            }
+        }
+    }
+
+    abstract static class Resource extends PhantomReference<Object> {
+        final Throwable allocationSite;
+
+        /**
+         * Creates and registers a new resource.
+         * 
+         * @param owner the object which owns the native object
+         * @param trackAllocation true if the allocation site should be
+         *        recorded in leak detection mode
+         */
+        Resource(Object owner, boolean trackAllocation) {
+            super(owner, QUEUE);
+            this.allocationSite = (trackAllocation && LEAK_DETECTION)
+                    ? new Throwable("Allocation site") : null;
+            register(this);
+        }
+
+        /**
+         * Releases the native object. Called at most once.
+         * @throws IOException if FreeType reported an error
+         */
+        abstract void release() throws IOException;
+
+        /**
+         * Returns the description used when the owner was not closed,
+         * or null if it is not a leak when the owner is collected.
+         */
+        abstract String getLeakDescription();
+
+        /**
+         * Unregisters this resource without releasing the native object.
+         * @return true if the resource was still registered
+         */
+        final boolean cancel() {
+            return unregister(this);
+        }
+
+        /**
+         * Releases the native object if it has not been released yet.
+         * @throws IOException if FreeType reported an error
+         */
+        final void clean() throws IOException {
+            if(unregister(this)) {
+                release();
+            }
+        }
+    }
+}
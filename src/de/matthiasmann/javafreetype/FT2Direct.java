@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+
+/**
+ * Backend using JNA direct mapping.
+ * 
+ * <p>Direct mapped calls avoid the reflection based dispatch and argument
+ * boxing of the {@link FT2Library} proxy. The native methods are only usable
+ * after {@link #register(java.lang.String) } succeeded.</p>
+ * 
+ * <p>Handles are passed as Java long, so this backend needs 64 bit pointers.
+ * FT_ULong char codes have the size of a C long, so the functions using
+ * them are registered from either {@link CharCode64} or {@link CharCode32}.</p>
+ *
+ * @author Matthias Mann
+ */
+final class FT2Direct {
+
+    static final String NAME = "direct";
+
+    private FT2Direct() {
+    }
+
+    /**
+     * Registers the native methods and creates the matching backend.
+     * 
+     * @param libName the name of the FreeType2 library
+     * @return the backend
+     * @throws UnsatisfiedLinkError if the methods could not be registered
+     *         or if the platform doesn't use 64 bit pointers
+     */
+    static FT2Backend register(String libName) {
+        if(Native.POINTER_SIZE != 8) {
+            throw new UnsatisfiedLinkError("Direct mapping needs 64 bit pointers");
+        }
+        NativeLibrary nativeLib = NativeLibrary.getInstance(libName);
+        Native.register(FT2Direct.class, nativeLib);
+        if(Native.LONG_SIZE == 8) {
+            Native.register(CharCode64.class, nativeLib);
+            return new Backend64();
+        } else {
+            Native.register(CharCode32.class, nativeLib);
+            return new Backend32();
+        }
+    }
+
+    static native int FT_Activate_Size(long size);
+    static native int FT_Set_Pixel_Sizes(long face, int pixel_width, int pixel_height);
+    static native int FT_Load_Glyph(long face, int glyph_index, int load_flags);
+    static native int FT_Get_Kerning(long face, int left_glyph, int right_glyph, int kern_mode, long akerning);
+
+    static final class CharCode64 {
+        private CharCode64() {
+        }
+
+        static native int FT_Load_Char(long face, long char_code, int load_flags);
+        static native int FT_Get_Char_Index(long face, long char_code);
+        static native long FT_Get_First_Char(long face, long agindex);
+        static native long FT_Get_Next_Char(long face, long char_code, long agindex);
+    }
+
+    static final class CharCode32 {
+        private CharCode32() {
+        }
+
+        static native int FT_Load_Char(long face, int char_code, int load_flags);
+        static native int FT_Get_Char_Index(long face, int char_code);
+        static native int FT_Get_First_Char(long face, long agindex);
+        static native int FT_Get_Next_Char(long face, int char_code, long agindex);
+    }
+
+    static final class Backend64 extends FT2JNABackend {
+        public String getName() {
+            return NAME;
+        }
+
+        public int FT_Activate_Size(long size) {
+            return FT2Direct.FT_Activate_Size(size);
+        }
+
+        public int FT_Set_Pixel_Sizes(long face, int pixel_width, int pixel_height) {
+            return FT2Direct.FT_Set_Pixel_Sizes(face, pixel_width, pixel_height);
+        }
+
+        public int FT_Load_Glyph(long face, int glyph_index, int load_flags) {
+            return FT2Direct.FT_Load_Glyph(face, glyph_index, load_flags);
+        }
+
+        public int FT_Load_Char(long face, int char_code, int load_flags) {
+            return CharCode64.FT_Load_Char(face, char_code, load_flags);
+        }
+
+        public int FT_Get_Char_Index(long face, int char_code) {
+            return CharCode64.FT_Get_Char_Index(face, char_code);
+        }
+
+        public int FT_Get_First_Char(long face, long agindex) {
+            return (int)CharCode64.FT_Get_First_Char(face, agindex);
+        }
+
+        public int FT_Get_Next_Char(long face, int char_code, long agindex) {
+            return (int)CharCode64.FT_Get_Next_Char(face, char_code, agindex);
+        }
+
+        public int FT_Get_Kerning(long face, int left_glyph, int right_glyph, int kern_mode, long akerning) {
+            return FT2Direct.FT_Get_Kerning(face, left_glyph, right_glyph, kern_mode, akerning);
+        }
+    }
+
+    static final class Backend32 extends FT2JNABackend {
+        public String getName() {
+            return NAME;
+        }
+
+        public int FT_Activate_Size(long size) {
+            return FT2Direct.FT_Activate_Size(size);
+        }
+
+        public int FT_Set_Pixel_Sizes(long face, int pixel_width, int pixel_height) {
+            return FT2Direct.FT_Set_Pixel_Sizes(face, pixel_width, pixel_height);
+        }
+
+        public int FT_Load_Glyph(long face, int glyph_index, int load_flags) {
+            return FT2Direct.FT_Load_Glyph(face, glyph_index, load_flags);
+        }
+
+        public int FT_Load_Char(long face, int char_code, int load_flags) {
+            return CharCode32.FT_Load_Char(face, char_code, load_flags);
+        }
+
+        public int FT_Get_Char_Index(long face, int char_code) {
+            return CharCode32.FT_Get_Char_Index(face, char_code);
+        }
+
+        public int FT_Get_First_Char(long face, long agindex) {
+            return CharCode32.FT_Get_First_Char(face, agindex);
+        }
+
+        public int FT_Get_Next_Char(long face, int char_code, long agindex) {
+            return CharCode32.FT_Get_Next_Char(face, char_code, agindex);
+        }
+
+        public int FT_Get_Kerning(long face, int left_glyph, int right_glyph, int kern_mode, long akerning) {
+            return FT2Direct.FT_Get_Kerning(face, left_glyph, right_glyph, kern_mode, akerning);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import com.sun.jna.Pointer;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+import static de.matthiasmann.javafreetype.FT2Helper.*;
+
+/**
+ * Reads single fields of a native FT_GlyphSlot.
+ * 
+ * <p>Reading the complete {@link FT_GlyphSlot} structure marshals all nested
+ * structures and pointers. The glyph load path only needs a few fields which
+ * are read at their native offset instead. Offsets and reads are provided
+ * by the active {@link FT2Backend}.</p>
+ *
+ * @author Matthias Mann
+ */
+final class FT2GlyphSlot {
+
+    static final int ADVANCE_X;
+    static final int ADVANCE_Y;
+    static final int FORMAT;
+    static final int BITMAP_ROWS;
+    static final int BITMAP_WIDTH;
+    static final int BITMAP_PITCH;
+    static final int BITMAP_BUFFER;
+    static final int BITMAP_NUM_GRAYS;
+    static final int BITMAP_PIXEL_MODE;
+    static final int BITMAP_LEFT;
+    static final int BITMAP_TOP;
+    static final int LSB_DELTA;
+    static final int RSB_DELTA;
+
+    static {
+        // only used after a font was created - so the backend is selected
+        FT2Backend backend = BACKEND;
+        ADVANCE_X = backend.getGlyphSlotOffset("advance.x");
+        ADVANCE_Y = backend.getGlyphSlotOffset("advance.y");
+        FORMAT = backend.getGlyphSlotOffset("format");
+        BITMAP_ROWS = backend.getGlyphSlotOffset("bitmap.rows");
+        BITMAP_WIDTH = backend.getGlyphSlotOffset("bitmap.width");
+        BITMAP_PITCH = backend.getGlyphSlotOffset("bitmap.pitch");
+        BITMAP_BUFFER = backend.getGlyphSlotOffset("bitmap.buffer");
+        BITMAP_NUM_GRAYS = backend.getGlyphSlotOffset("bitmap.num_grays");
+        BITMAP_PIXEL_MODE = backend.getGlyphSlotOffset("bitmap.pixel_mode");
+        BITMAP_LEFT = backend.getGlyphSlotOffset("bitmap_left");
+        BITMAP_TOP = backend.getGlyphSlotOffset("bitmap_top");
+        LSB_DELTA = backend.getGlyphSlotOffset("lsb_delta");
+        RSB_DELTA = backend.getGlyphSlotOffset("rsb_delta");
+    }
+
+    private FT2GlyphSlot() {
+    }
+
+    static int getFormat(Pointer slot) {
+        return BACKEND.getInt(Pointer.nativeValue(slot) + FORMAT);
+    }
+
+    static boolean isBitmap(Pointer slot) {
+        return getFormat(slot) == FT_GLYPH_FORMAT_BITMAP;
+    }
+
+    static int getPixelMode(Pointer slot) {
+        return BACKEND.getByte(Pointer.nativeValue(slot) + BITMAP_PIXEL_MODE) & 255;
+    }
+
+    static boolean hasBitmapBuffer(Pointer slot) {
+        return BACKEND.getAddress(Pointer.nativeValue(slot) + BITMAP_BUFFER) != 0;
+    }
+
+    static int getBitmapWidth(Pointer slot) {
+        return BACKEND.getInt(Pointer.nativeValue(slot) + BITMAP_WIDTH);
+    }
+
+    static int getBitmapRows(Pointer slot) {
+        return BACKEND.getInt(Pointer.nativeValue(slot) + BITMAP_ROWS);
+    }
+
+    static int getBitmapLeft(Pointer slot) {
+        return BACKEND.getInt(Pointer.nativeValue(slot) + BITMAP_LEFT);
+    }
+
+    static int getBitmapTop(Pointer slot) {
+        return BACKEND.getInt(Pointer.nativeValue(slot) + BITMAP_TOP);
+    }
+
+    /**
+     * Reads the bitmap of the slot.
+     * 
+     * @param bitmap receives the bitmap fields
+     * @return false if the slot has no bitmap buffer
+     */
+    static boolean readBitmap(Pointer slot, FT2Bitmap bitmap) {
+        final FT2Backend backend = BACKEND;
+        final long address = Pointer.nativeValue(slot);
+        bitmap.buffer = backend.getAddress(address + BITMAP_BUFFER);
+        if(bitmap.buffer == 0) {
+            return false;
+        }
+        bitmap.rows = backend.getInt(address + BITMAP_ROWS);
+        bitmap.width = backend.getInt(address + BITMAP_WIDTH);
+        bitmap.pitch = backend.getInt(address + BITMAP_PITCH);
+        bitmap.num_grays = backend.getShort(address + BITMAP_NUM_GRAYS) & 0xFFFF;
+        bitmap.pixel_mode = backend.getByte(address + BITMAP_PIXEL_MODE) & 255;
+        return true;
+    }
+
+    /**
+     * Returns the advance in 26.6 fixed point format
+     */
+    static long getAdvanceX(Pointer slot) {
+        return BACKEND.getNativeLong(Pointer.nativeValue(slot) + ADVANCE_X);
+    }
+
+    /**
+     * Returns the advance in 26.6 fixed point format
+     */
+    static long getAdvanceY(Pointer slot) {
+        return BACKEND.getNativeLong(Pointer.nativeValue(slot) + ADVANCE_Y);
+    }
+
+    static long getLsbDelta(Pointer slot) {
+        return BACKEND.getNativeLong(Pointer.nativeValue(slot) + LSB_DELTA);
+    }
+
+    static long getRsbDelta(Pointer slot) {
+        return BACKEND.getNativeLong(Pointer.nativeValue(slot) + RSB_DELTA);
+    }
+}
@@ -32,11 +32,15 @@ package de.matthiasmann.javafreetype;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.Color;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import com.sun.jna.Memory;
 import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
 import com.sun.jna.NativeLong;
 import com.sun.jna.Platform;
 import com.sun.jna.Pointer;
@@ -46,7 +50,12 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 
 import static de.matthiasmann.javafreetype.FT2Library.*;
 
@@ -57,8 +66,15 @@ import static de.matthiasmann.javafreetype.FT2Library.*;
 class FT2Helper {
 
     private static Boolean isAvailable;
+    private static Boolean isNativeSDFAvailable;
     static FT2Library INSTANCE;
     static String nativeLibName;
+    static FT2Backend BACKEND;
+    /** name of the java.lang.foreign backend for {@link FT2Backend#BACKEND_PROPERTY} */
+    static final String FOREIGN_BACKEND_NAME = "ffm";
+    static final String FOREIGN_BACKEND_CLASS = "de.matthiasmann.javafreetype.FT2ForeignBackend";
+    /** the FreeType2 version as {@code major*10000 + minor*100 + patch} */
+    static int version;
 
     static synchronized boolean isAvailable() {
         if(isAvailable == null) {
@@ -72,6 +88,7 @@ class FT2Helper {
                     libName = "freetype";
                 }
                 INSTANCE = (FT2Library)Native.loadLibrary(libName, FT2Library.class);
+                BACKEND = selectBackend(libName);
                 Pointer library = FT_Init_FreeType();
                 try {
                     isAvailable = checkLibrary(library);
@@ -87,6 +104,44 @@ class FT2Helper {
         return isAvailable;
     }
 
+    private static FT2Backend selectBackend(String libName) {
+        String name = System.getProperty(FT2Backend.BACKEND_PROPERTY, FT2Direct.NAME);
+        if(FOREIGN_BACKEND_NAME.equals(name)) {
+            try {
+                return createForeignBackend(libName);
+            } catch (Throwable ex) {
+                getLogger().log(Level.INFO, "java.lang.foreign backend not available - using JNA", ex);
+            }
+            name = FT2Direct.NAME;
+        }
+        if(FT2Direct.NAME.equals(name)) {
+            try {
+                return FT2Direct.register(libName);
+            } catch (Throwable ex) {
+                getLogger().log(Level.INFO, "JNA direct mapping not available - using interface mapping", ex);
+            }
+        } else if(!FT2ProxyBackend.NAME.equals(name)) {
+            getLogger().log(Level.WARNING, "Unknown backend: {0}", name);
+        }
+        return new FT2ProxyBackend(INSTANCE);
+    }
+
+    /**
+     * Loads the java.lang.foreign backend. It is only part of the jar for
+     * Java 22 and newer, so it is created by name. The backend must use the
+     * same native library as JNA - it gets the file which JNA has loaded.
+     */
+    private static FT2Backend createForeignBackend(String libName) throws Exception {
+        File file = NativeLibrary.getInstance(libName).getFile();
+        if(file == null) {
+            throw new FileNotFoundException("Can't locate the FreeType2 library file");
+        }
+        Class<?> clazz = Class.forName(FOREIGN_BACKEND_CLASS);
+        Constructor<?> c = clazz.getDeclaredConstructor(String.class);
+        c.setAccessible(true);
+        return (FT2Backend)c.newInstance(file.getAbsolutePath());
+    }
+
     static void checkAvailable() {
         if(!isAvailable()) {
             throw new UnsupportedOperationException("FreeType2 library not available");
@@ -113,6 +168,7 @@ class FT2Helper {
         IntByReference minor = new IntByReference();
         IntByReference patch = new IntByReference();
         INSTANCE.FT_Library_Version(library, major, minor, patch);
+        version = makeVersion(major.getValue(), minor.getValue(), patch.getValue());
 
         int engine = -1;
         if(major.getValue() > 2 || (major.getValue() == 2 && minor.getValue() >= 2)) {
@@ -120,8 +176,8 @@ class FT2Helper {
             engine = INSTANCE.FT_Get_TrueType_Engine_Type(library);
         }
 
-        getLogger().log(Level.INFO, "FreeType2 version: {0}.{1}.{2} TrueType engine: {3}",
-                new Object[]{ major.getValue(), minor.getValue(), patch.getValue(), trueTypeEngineToString(engine) });
+        getLogger().log(Level.INFO, "FreeType2 version: {0}.{1}.{2} TrueType engine: {3} backend: {4}",
+                new Object[]{ major.getValue(), minor.getValue(), patch.getValue(), trueTypeEngineToString(engine), BACKEND.getName() });
 
         final int MIN_MAJOR = 2;
         final int MIN_MINOR = 3;
@@ -136,6 +192,42 @@ class FT2Helper {
         }
     }
 
+    static int makeVersion(int major, int minor, int patch) {
+        return major * 10000 + minor * 100 + patch;
+    }
+
+    /**
+     * Checks if FreeType contains the "sdf" and "bsdf" renderer modules.
+     * They were added in 2.11 but can be disabled when FreeType is built.
+     * The result is probed once using a temporary library.
+     */
+    static synchronized boolean isNativeSDFAvailable() {
+        if(isNativeSDFAvailable == null) {
+            boolean available = false;
+            if(isAvailable() && isVersionAtLeast(2, 11, 0)) {
+                try {
+                    Pointer library = FT_Init_FreeType();
+                    try {
+                        Memory value = new Memory(4);
+                        value.setInt(0, 8);     // the default spread
+                        available = INSTANCE.FT_Property_Set(library, "sdf", "spread", value) == 0 &&
+                                INSTANCE.FT_Property_Set(library, "bsdf", "spread", value) == 0;
+                    } finally {
+                        INSTANCE.FT_Done_FreeType(library);
+                    }
+                } catch (Throwable ex) {
+                    getLogger().log(Level.FINE, "Can't probe the SDF renderer", ex);
+                }
+            }
+            isNativeSDFAvailable = available;
+        }
+        return isNativeSDFAvailable;
+    }
+
+    static boolean isVersionAtLeast(int major, int minor, int patch) {
+        return version >= makeVersion(major, minor, patch);
+    }
+
     static Pointer FT_Init_FreeType() throws FreeTypeException {
         PointerByReference pp = new PointerByReference();
         checkReturnCode(INSTANCE.FT_Init_FreeType(pp));
@@ -149,12 +241,73 @@ class FT2Helper {
         return new FT_Face(pp.getValue());
     }
     
+    static FT_Face FT_Open_Face(Pointer library, FT2Stream stream, long face_index) throws FreeTypeException {
+        PointerByReference pp = new PointerByReference();
+        int err = INSTANCE.FT_Open_Face(library, stream.createOpenArgs(), new NativeLong(face_index), pp);
+        Throwable readError = stream.takeReadError();
+        if(err != 0) {
+            FreeTypeException ex = new FreeTypeException(err);
+            if(readError != null) {
+                ex.initCause(readError);
+            }
+            throw ex;
+        }
+        return new FT_Face(pp.getValue());
+    }
+
     static Pointer FT_New_Size(Pointer face) throws FreeTypeException {
         PointerByReference pp = new PointerByReference();
         checkReturnCode(INSTANCE.FT_New_Size(face, pp));
         return pp.getValue();
     }
 
+    static int FT_Activate_Size(Pointer size) {
+        return BACKEND.FT_Activate_Size(Pointer.nativeValue(size));
+    }
+
+    static int FT_Set_Pixel_Sizes(Pointer face, int width, int height) {
+        return BACKEND.FT_Set_Pixel_Sizes(Pointer.nativeValue(face), width, height);
+    }
+
+    static int FT_Load_Glyph(Pointer face, int glyphIndex, int flags) {
+        return BACKEND.FT_Load_Glyph(Pointer.nativeValue(face), glyphIndex, flags);
+    }
+
+    static int FT_Load_Char(Pointer face, int codepoint, int flags) {
+        return BACKEND.FT_Load_Char(Pointer.nativeValue(face), codepoint, flags);
+    }
+
+    static int FT_Get_Char_Index(Pointer face, int codepoint) {
+        return BACKEND.FT_Get_Char_Index(Pointer.nativeValue(face), codepoint);
+    }
+
+    static int FT_Get_First_Char(Pointer face, IntByReference glyphIndex) {
+        return BACKEND.FT_Get_First_Char(Pointer.nativeValue(face), Pointer.nativeValue(glyphIndex.getPointer()));
+    }
+
+    static int FT_Get_Next_Char(Pointer face, int codepoint, IntByReference glyphIndex) {
+        return BACKEND.FT_Get_Next_Char(Pointer.nativeValue(face), codepoint, Pointer.nativeValue(glyphIndex.getPointer()));
+    }
+
+    /**
+     * Calls FT_Get_Kerning and stores the result in a native FT_Vector.
+     * @see #getNativeLong(com.sun.jna.Pointer, long) 
+     */
+    static int FT_Get_Kerning(Pointer face, int leftGlyph, int rightGlyph, int mode, Pointer vec) {
+        return BACKEND.FT_Get_Kerning(Pointer.nativeValue(face), leftGlyph, rightGlyph, mode, Pointer.nativeValue(vec));
+    }
+
+    /**
+     * Reads a C long (eg FT_Pos or FT_Fixed) without allocating a NativeLong
+     */
+    static long getNativeLong(Pointer p, long offset) {
+        if(Native.LONG_SIZE == 8) {
+            return p.getLong(offset);
+        } else {
+            return p.getInt(offset);
+        }
+    }
+
     static int FT_IMAGE_TAG(int x1, int x2, int x3, int x4) {
         return (x1 << 24) | (x2 << 16) | (x3 << 8) | x4;
     }
@@ -185,36 +338,39 @@ class FT2Helper {
         return tmp >> 16;
     }
     
-    static boolean copyGlyphToBufferedImageGray(FT_Bitmap bitmap, BufferedImage img, int x, int y) {
+    static boolean copyGlyphToBufferedImageGray(FT2Bitmap bitmap, BufferedImage img, int x, int y) {
         if(x + bitmap.width > img.getWidth()) {
             return false;
         }
         if(y + bitmap.rows > img.getHeight()) {
             return false;
         }
+        if(!PixelModeConverter.isSupported(bitmap.pixel_mode)) {
+            return false;
+        }
 
         final DataBufferByte dataBuffer = (DataBufferByte)img.getRaster().getDataBuffer();
         final byte[] data = dataBuffer.getData();
         final int stride = ((ComponentSampleModel)img.getSampleModel()).getScanlineStride();
 
-        ByteBuffer bb = bitmap.buffer.getByteBuffer(0, Math.abs(bitmap.pitch) * bitmap.rows);
+        ByteBuffer bb = bitmap.getBuffer();
         int bbOff = (bitmap.pitch < 0) ? (-bitmap.pitch * (bitmap.rows-1)) : 0;
         int dataOff = dataBuffer.getOffset() + y * stride + x;
 
         for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dataOff+=stride) {
-            for(int c=0 ; c<bitmap.width ; c++) {
-                data[dataOff + c] = bb.get(bbOff + c);
-            }
+            PixelModeConverter.toCoverage(bb, bbOff, bitmap.pixel_mode, bitmap.num_grays,
+                    bitmap.width, data, dataOff);
         }
 
         return true;
     }
 
-    static boolean copyGlyphToBufferedImageIntARGB(FT_Bitmap bitmap, BufferedImage img, int x, int y, Color color) {
-        if(x + bitmap.width > img.getWidth()) {
+    static boolean copyGlyphToBufferedImageIntARGB(FT2Bitmap bitmap, BufferedImage img, int x, int y, Color color,
+            boolean bgr, FreeTypeLCDFilter filter) {
+        if(x + getPixelWidth(bitmap) > img.getWidth()) {
             return false;
         }
-        if(y + bitmap.rows > img.getHeight()) {
+        if(y + getPixelHeight(bitmap) > img.getHeight()) {
             return false;
         }
 
@@ -222,105 +378,400 @@ class FT2Helper {
         final int[] data = dataBuffer.getData();
         final int stride = ((SinglePixelPackedSampleModel)img.getSampleModel()).getScanlineStride();
 
-        ByteBuffer bb = bitmap.buffer.getByteBuffer(0, Math.abs(bitmap.pitch) * bitmap.rows);
+        ByteBuffer bb = bitmap.getBuffer();
         int bbOff = (bitmap.pitch < 0) ? (-bitmap.pitch * (bitmap.rows-1)) : 0;
         int dataOff = dataBuffer.getOffset() + y * stride + x;
 
         int colorValue = (color == null ? Color.WHITE : color).getRGB() & 0xFFFFFF;
 
         switch(bitmap.pixel_mode) {
-            case FT_PIXEL_MODE_GRAY:
+            case FT_PIXEL_MODE_BGRA:
+                // un-premultiply the color glyph
                 for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dataOff+=stride) {
                     for(int c=0 ; c<bitmap.width ; c++) {
-                        data[dataOff + c] = colorValue | (bb.get(bbOff + c) << 24);
+                        int off = bbOff + c*4;
+                        int a = bb.get(off + 3) & 255;
+                        if(a == 0) {
+                            data[dataOff + c] = 0;
+                        } else {
+                            int cb = (bb.get(off    ) & 255) * 255 / a;
+                            int cg = (bb.get(off + 1) & 255) * 255 / a;
+                            int cr = (bb.get(off + 2) & 255) * 255 / a;
+                            data[dataOff + c] = (a << 24) | (Math.min(cr, 255) << 16) |
+                                    (Math.min(cg, 255) << 8) | Math.min(cb, 255);
+                        }
                     }
                 }
                 return true;
-                
+
             case FT_PIXEL_MODE_MONO:
+            case FT_PIXEL_MODE_GRAY:
+            case FT_PIXEL_MODE_GRAY2:
+            case FT_PIXEL_MODE_GRAY4:
                 for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dataOff+=stride) {
-                    for(int c=0 ; c<bitmap.width ;) {
-                        int value = bb.get(bbOff + c/8);
-                        int cnt = Math.min(bitmap.width - c, 8);
-                        while(cnt-- > 0) {
-                            data[dataOff + c++] = colorValue | ((value & 128) << (24-7))*0xFF;
-                            value <<= 1;
+                    PixelModeConverter.toARGB(bb, bbOff, bitmap.pixel_mode, bitmap.num_grays,
+                            bitmap.width, data, dataOff, colorValue);
+                }
+                return true;
+
+            case FT_PIXEL_MODE_LCD:
+            case FT_PIXEL_MODE_LCD_V: {
+                // ARGB has only one alpha - use the maximum coverage as alpha
+                // and scale the color so that color*alpha matches the subpixel coverage
+                final int width = getPixelWidth(bitmap);
+                final int height = getPixelHeight(bitmap);
+                final int cr = (colorValue >> 16) & 255;
+                final int cg = (colorValue >>  8) & 255;
+                final int cb =  colorValue        & 255;
+                final int first = bgr ? 2 : 0;
+                for(int r=0 ; r<height ; r++,dataOff+=stride) {
+                    for(int c=0 ; c<width ; c++) {
+                        int sr = lcdSubpixel(bitmap, bb, bbOff, c, r, first, filter);
+                        int sg = lcdSubpixel(bitmap, bb, bbOff, c, r, 1, filter);
+                        int sb = lcdSubpixel(bitmap, bb, bbOff, c, r, 2-first, filter);
+                        int a = Math.max(sr, Math.max(sg, sb));
+                        if(a == 0) {
+                            data[dataOff + c] = colorValue;
+                        } else {
+                            data[dataOff + c] = (a << 24) |
+                                    ((cr * sr / a) << 16) |
+                                    ((cg * sg / a) <<  8) |
+                                     (cb * sb / a);
                         }
                     }
                 }
                 return true;
-                
+            }
+
             default:
                 return false;
         }
     }
 
-    static boolean copyGlyphToByteBuffer(FT_Bitmap bitmap, ByteBuffer dst, int stride) {
-        ByteBuffer bb = bitmap.buffer.getByteBuffer(0, Math.abs(bitmap.pitch) * bitmap.rows);
+    /**
+     * Copies a glyph into a TYPE_INT_ARGB_PRE image. Color glyphs are copied
+     * with one bulk read per row as FreeType's premultiplied BGRA matches the
+     * little endian layout of ARGB_PRE.
+     * 
+     * @param scratch a row buffer of at least bitmap.width bytes used to
+     *        convert coverage pixel modes
+     */
+    static boolean copyGlyphToBufferedImageIntARGBPre(FT2Bitmap bitmap, BufferedImage img, int x, int y,
+            Color color, byte[] scratch) {
+        if(x + bitmap.width > img.getWidth()) {
+            return false;
+        }
+        if(y + bitmap.rows > img.getHeight()) {
+            return false;
+        }
+
+        final DataBufferInt dataBuffer = (DataBufferInt)img.getRaster().getDataBuffer();
+        final int[] data = dataBuffer.getData();
+        final int stride = ((SinglePixelPackedSampleModel)img.getSampleModel()).getScanlineStride();
+
+        ByteBuffer bb = bitmap.getBuffer();
         int bbOff = (bitmap.pitch < 0) ? (-bitmap.pitch * (bitmap.rows-1)) : 0;
-        int dstOff = dst.position();
+        int dataOff = dataBuffer.getOffset() + y * stride + x;
 
-        for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstOff+=stride) {
-            bb.clear().position(bbOff).limit(bbOff + bitmap.width);
-            dst.position(dstOff);
-            dst.put(bb);
+        if(bitmap.pixel_mode == FT_PIXEL_MODE_BGRA) {
+            IntBuffer ib = bb.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dataOff+=stride) {
+                ib.position(bbOff >> 2);
+                ib.get(data, dataOff, bitmap.width);
+            }
+            return true;
         }
 
+        if(!PixelModeConverter.isSupported(bitmap.pixel_mode)) {
+            return false;
+        }
+
+        final int colorValue = (color == null ? Color.WHITE : color).getRGB();
+        final int cr = (colorValue >> 16) & 255;
+        final int cg = (colorValue >>  8) & 255;
+        final int cb =  colorValue        & 255;
+        for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dataOff+=stride) {
+            PixelModeConverter.toCoverage(bb, bbOff, bitmap.pixel_mode, bitmap.num_grays, bitmap.width, scratch, 0);
+            for(int c=0 ; c<bitmap.width ; c++) {
+                int a = scratch[c] & 255;
+                data[dataOff + c] = (a << 24) | (mul255(cr, a) << 16) | (mul255(cg, a) << 8) | mul255(cb, a);
+            }
+        }
         return true;
     }
-    
-    static boolean copyGlyphToByteArray(FT_Bitmap bitmap, byte[] dst, int dstOff, int stride) {
-        ByteBuffer bb = bitmap.buffer.getByteBuffer(0, Math.abs(bitmap.pitch) * bitmap.rows);
+
+    /**
+     * Copies a glyph as premultiplied RGBA. Coverage glyphs are white.
+     * 
+     * @param scratch a row buffer of at least bitmap.width bytes used to
+     *        convert coverage pixel modes
+     */
+    static boolean copyGlyphToByteBufferRGBA(FT2Bitmap bitmap, ByteBuffer dst, int stride, byte[] scratch) {
+        ByteBuffer bb = bitmap.getBuffer();
         int bbOff = (bitmap.pitch < 0) ? (-bitmap.pitch * (bitmap.rows-1)) : 0;
-        bb.clear();
+        int dstRowOff = dst.position();
+        final ByteBuffer out = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int width = bitmap.width;
+
+        if(bitmap.pixel_mode == FT_PIXEL_MODE_BGRA) {
+            bb.order(ByteOrder.LITTLE_ENDIAN);
+            for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstRowOff+=stride) {
+                for(int c=0 ; c<width ; c++) {
+                    // 0xAARRGGBB -> 0xAABBGGRR which is R,G,B,A in memory
+                    int argb = bb.getInt(bbOff + c*4);
+                    int abgr = (argb & 0xFF00FF00) | ((argb >> 16) & 0xFF) | ((argb & 0xFF) << 16);
+                    out.putInt(dstRowOff + c*4, abgr);
+                }
+            }
+            return true;
+        }
+
+        if(!PixelModeConverter.isSupported(bitmap.pixel_mode)) {
+            return false;
+        }
+        for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstRowOff+=stride) {
+            PixelModeConverter.toCoverage(bb, bbOff, bitmap.pixel_mode, bitmap.num_grays, width, scratch, 0);
+            for(int c=0 ; c<width ; c++) {
+                out.putInt(dstRowOff + c*4, (scratch[c] & 255) * 0x01010101);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes {@code round(a * b / 255)} for values 0..255
+     */
+    static int mul255(int a, int b) {
+        int t = a * b + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+
+    /**
+     * Returns the width in pixels - horizontal LCD bitmaps have 3 subpixels per pixel.
+     */
+    static int getPixelWidth(FT2Bitmap bitmap) {
+        return (bitmap.pixel_mode == FT_PIXEL_MODE_LCD) ? bitmap.width / 3 : bitmap.width;
+    }
+
+    /**
+     * Returns the height in pixels - vertical LCD bitmaps have 3 subpixel rows per pixel.
+     */
+    static int getPixelHeight(FT2Bitmap bitmap) {
+        return (bitmap.pixel_mode == FT_PIXEL_MODE_LCD_V) ? bitmap.rows / 3 : bitmap.rows;
+    }
+
+    /**
+     * Reads the coverage of one subpixel of a LCD or LCD_V bitmap.
+     * 
+     * @param bb the bitmap buffer
+     * @param bbOff the offset of the top row in bb
+     * @param x the pixel column
+     * @param y the pixel row
+     * @param sub the subpixel index (0..2) in bitmap order
+     * @param filter the FIR filter or null
+     * @return the coverage 0..255
+     */
+    private static int lcdSubpixel(FT2Bitmap bitmap, ByteBuffer bb, int bbOff, int x, int y, int sub, FreeTypeLCDFilter filter) {
+        int lineOff, step, idx, count;
+        if(bitmap.pixel_mode == FT_PIXEL_MODE_LCD) {
+            lineOff = bbOff + y * bitmap.pitch;
+            step = 1;
+            idx = x * 3 + sub;
+            count = bitmap.width;
+        } else {
+            lineOff = bbOff + x;
+            step = bitmap.pitch;
+            idx = y * 3 + sub;
+            count = bitmap.rows;
+        }
+        if(filter != null) {
+            return filter.filter(bb, lineOff, step, idx, count);
+        }
+        return bb.get(lineOff + idx * step) & 255;
+    }
+
+    /**
+     * Copies a glyph as packed RGB with 3 bytes per pixel. LCD glyphs use
+     * their subpixel coverage, all other glyphs the same coverage for all
+     * 3 channels.
+     * 
+     * @param bgr true if the display has BGR subpixel order
+     * @param filter the FIR filter for LCD glyphs or null
+     * @param scratch a row buffer of at least bitmap.width bytes used to
+     *        convert packed pixel modes
+     */
+    static boolean copyGlyphToByteBufferRGB(FT2Bitmap bitmap, ByteBuffer dst, int stride, boolean bgr,
+            FreeTypeLCDFilter filter, byte[] scratch) {
+        ByteBuffer bb = bitmap.getBuffer();
+        int bbOff = (bitmap.pitch < 0) ? (-bitmap.pitch * (bitmap.rows-1)) : 0;
+        int dstRowOff = dst.position();
+        final int width = getPixelWidth(bitmap);
+        final int height = getPixelHeight(bitmap);
 
         switch(bitmap.pixel_mode) {
-            case FT_PIXEL_MODE_GRAY:
-                for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstOff+=stride) {
-                    bb.position(bbOff);
-                    bb.get(dst, dstOff, bitmap.width);
+            case FT_PIXEL_MODE_LCD:
+            case FT_PIXEL_MODE_LCD_V: {
+                final int first = bgr ? 2 : 0;
+                for(int r=0 ; r<height ; r++,dstRowOff+=stride) {
+                    for(int c=0,dstOff=dstRowOff ; c<width ; c++,dstOff+=3) {
+                        dst.put(dstOff + first, (byte)lcdSubpixel(bitmap, bb, bbOff, c, r, 0, filter));
+                        dst.put(dstOff + 1,     (byte)lcdSubpixel(bitmap, bb, bbOff, c, r, 1, filter));
+                        dst.put(dstOff + 2-first, (byte)lcdSubpixel(bitmap, bb, bbOff, c, r, 2, filter));
+                    }
                 }
                 return true;
-                
+            }
+
             case FT_PIXEL_MODE_MONO:
-                for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstOff+=stride) {
-                    bb.position(bbOff);
-                    for(int c=0 ; c<bitmap.width ;) {
-                        int value = bb.get(bbOff + c/8);
-                        int cnt = Math.min(bitmap.width - c, 8);
-                        while(cnt-- > 0) {
-                            dst[dstOff + c++] = (byte)(((value & 128) >> 7)*0xFF);
-                            value <<= 1;
-                        }
+            case FT_PIXEL_MODE_GRAY:
+            case FT_PIXEL_MODE_GRAY2:
+            case FT_PIXEL_MODE_GRAY4:
+                for(int r=0 ; r<height ; r++,bbOff+=bitmap.pitch,dstRowOff+=stride) {
+                    PixelModeConverter.toCoverage(bb, bbOff, bitmap.pixel_mode, bitmap.num_grays, width, scratch, 0);
+                    for(int c=0,dstOff=dstRowOff ; c<width ; c++,dstOff+=3) {
+                        byte value = scratch[c];
+                        dst.put(dstOff, value);
+                        dst.put(dstOff + 1, value);
+                        dst.put(dstOff + 2, value);
                     }
                 }
                 return true;
-                
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Copies a glyph as 8 bit coverage. LCD bitmaps are copied as subpixel coverage.
+     * 
+     * @param scratch a row buffer of at least bitmap.width bytes used to
+     *        convert packed pixel modes
+     */
+    static boolean copyGlyphToByteBuffer(FT2Bitmap bitmap, ByteBuffer dst, int stride, byte[] scratch) {
+        ByteBuffer bb = bitmap.getBuffer();
+        int bbOff = (bitmap.pitch < 0) ? (-bitmap.pitch * (bitmap.rows-1)) : 0;
+        int dstOff = dst.position();
+        final int mode = bitmap.pixel_mode;
+
+        if(isRawCoverage(bitmap)) {
+            for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstOff+=stride) {
+                bb.clear().position(bbOff).limit(bbOff + bitmap.width);
+                dst.position(dstOff);
+                dst.put(bb);
+            }
+            return true;
+        }
+
+        if(!PixelModeConverter.isSupported(mode)) {
+            return false;
+        }
+        for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstOff+=stride) {
+            PixelModeConverter.toCoverage(bb, bbOff, mode, bitmap.num_grays, bitmap.width, scratch, 0);
+            dst.position(dstOff);
+            dst.put(scratch, 0, bitmap.width);
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the bitmap bytes are 8 bit coverage values which can be copied as is.
+     */
+    private static boolean isRawCoverage(FT2Bitmap bitmap) {
+        switch(bitmap.pixel_mode) {
+            case FT_PIXEL_MODE_GRAY:
+                return bitmap.num_grays == 256;
+            case FT_PIXEL_MODE_LCD:
+            case FT_PIXEL_MODE_LCD_V:
+                return true;
             default:
                 return false;
         }
     }
+    
+    static boolean copyGlyphToByteArray(FT2Bitmap bitmap, byte[] dst, int dstOff, int stride) {
+        ByteBuffer bb = bitmap.getBuffer();
+        int bbOff = (bitmap.pitch < 0) ? (-bitmap.pitch * (bitmap.rows-1)) : 0;
+        bb.clear();
+
+        if(isRawCoverage(bitmap)) {
+            // LCD bitmaps are copied as subpixel coverage
+            for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstOff+=stride) {
+                bb.position(bbOff);
+                bb.get(dst, dstOff, bitmap.width);
+            }
+            return true;
+        }
+
+        if(!PixelModeConverter.isSupported(bitmap.pixel_mode)) {
+            return false;
+        }
+        for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstOff+=stride) {
+            PixelModeConverter.toCoverage(bb, bbOff, bitmap.pixel_mode, bitmap.num_grays,
+                    bitmap.width, dst, dstOff);
+        }
+        return true;
+    }
 
-    static boolean copyGlyphToByteBuffer(FT_Bitmap bitmap, ByteBuffer dst, int stride, short[] colors) {
-        ByteBuffer bb = bitmap.buffer.getByteBuffer(0, Math.abs(bitmap.pitch) * bitmap.rows);
+    /**
+     * Blends between two colors using the coverage. Each row is converted to
+     * coverage, blended with the lookup table and written with one bulk put.
+     * 
+     * @param blend the color lookup table
+     * @param bgr true if the display has BGR subpixel order
+     * @param filter the FIR filter for LCD glyphs or null
+     * @param scratch a row buffer of at least bitmap.width bytes used to
+     *        convert packed pixel modes
+     */
+    static boolean copyGlyphToByteBuffer(FT2Bitmap bitmap, ByteBuffer dst, int stride, ColorBlendTable blend,
+            boolean bgr, FreeTypeLCDFilter filter, byte[] scratch) {
+        ByteBuffer bb = bitmap.getBuffer();
         int bbOff = (bitmap.pitch < 0) ? (-bitmap.pitch * (bitmap.rows-1)) : 0;
         int dstRowOff = dst.position();
-        int width = bitmap.width;
+        final int width = bitmap.width;
+
+        if(bitmap.pixel_mode == FT_PIXEL_MODE_LCD || bitmap.pixel_mode == FT_PIXEL_MODE_LCD_V) {
+            return copyGlyphToByteBufferLCD(bitmap, bb, bbOff, dst, stride, blend, bgr, filter);
+        }
+        if(!PixelModeConverter.isSupported(bitmap.pixel_mode)) {
+            return false;
+        }
 
+        final byte[] row = blend.getRow(width);
+        final int rowBytes = width * blend.channels;
         for(int r=0 ; r<bitmap.rows ; r++,bbOff+=bitmap.pitch,dstRowOff+=stride) {
-            int dstOff = dstRowOff;
+            PixelModeConverter.toCoverage(bb, bbOff, bitmap.pixel_mode, bitmap.num_grays, width, scratch, 0);
+            blend.blendRow(scratch, width, row);
+            dst.position(dstRowOff);
+            dst.put(row, 0, rowBytes);
+        }
+        
+        return true;
+    }
+
+    /**
+     * Blends LCD coverage. The first 3 channels use the R, G and B subpixel
+     * coverage, other channels (eg alpha) use the maximum coverage.
+     */
+    private static boolean copyGlyphToByteBufferLCD(FT2Bitmap bitmap, ByteBuffer bb, int bbOff, ByteBuffer dst, int stride,
+            ColorBlendTable blend, boolean bgr, FreeTypeLCDFilter filter) {
+        final int width = getPixelWidth(bitmap);
+        final int height = getPixelHeight(bitmap);
+        final int channels = blend.channels;
+        final int first = bgr ? 2 : 0;
+        final byte[] row = blend.getRow(width);
+        int dstRowOff = dst.position();
+
+        for(int r=0 ; r<height ; r++,dstRowOff+=stride) {
             for(int c=0 ; c<width ; c++) {
-                int value = bb.get(bbOff + c) & 255;
-                if(value >= 0x80) {
-                    value++;
-                }
-                for(int i=0 ; i<colors.length ; i+=2,dstOff++) {
-                    dst.put(dstOff, (byte)(colors[i] + ((colors[i+1] * value) >> 8)));
-                }
+                int sr = lcdSubpixel(bitmap, bb, bbOff, c, r, first, filter);
+                int sg = lcdSubpixel(bitmap, bb, bbOff, c, r, 1, filter);
+                int sb = lcdSubpixel(bitmap, bb, bbOff, c, r, 2-first, filter);
+                blend.blendSubpixel(sr, sg, sb, row, c * channels);
             }
-            dst.position(dstOff);
+            dst.position(dstRowOff);
+            dst.put(row, 0, width * channels);
         }
-        
         return true;
     }
 
@@ -353,6 +804,41 @@ class FT2Helper {
         }
     }
 
+    /**
+     * Releases the native memory or the mapping of a direct buffer without
+     * waiting for the garbage collector. The buffer must not be accessed
+     * afterwards. Does nothing if the JVM provides no way to do this.
+     */
+    static void freeDirectBuffer(ByteBuffer buffer) {
+        if(!buffer.isDirect()) {
+            return;
+        }
+        try {
+            // Java 9 and newer
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException ex) {
+            // fall through to the Java 8 API
+        } catch (Throwable ex) {
+            getLogger().log(Level.FINE, "Can't free direct buffer", ex);
+            return;
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if(cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Throwable ex) {
+            getLogger().log(Level.FINE, "Can't free direct buffer", ex);
+        }
+    }
+
     static Logger getLogger() {
         return Logger.getLogger(FreeTypeFont.class.getName());
     }
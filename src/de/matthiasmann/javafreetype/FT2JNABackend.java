@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+
+/**
+ * Base class of the JNA backends. Memory is accessed through a
+ * {@code Pointer} with address 0 so reads don't allocate, structure
+ * offsets are taken from the JNA structures in {@link FT2Library}.
+ *
+ * @author Matthias Mann
+ */
+abstract class FT2JNABackend implements FT2Backend {
+
+    /** all of the address space - offsets are absolute addresses */
+    static final Pointer MEMORY = new Pointer(0);
+
+    public int getGlyphSlotOffset(String field) {
+        FT_GlyphSlot slot = new FT_GlyphSlot();
+        int dot = field.indexOf('.');
+        if(dot < 0) {
+            return slot.offsetOf(field);
+        }
+        String struct = field.substring(0, dot);
+        String member = field.substring(dot + 1);
+        int offset = slot.offsetOf(struct);
+        if("advance".equals(struct)) {
+            return offset + new FT_Vector().offsetOf(member);
+        }
+        if("bitmap".equals(struct)) {
+            return offset + new FT_Bitmap().offsetOf(member);
+        }
+        throw new IllegalArgumentException("Unknown field: " + field);
+    }
+
+    public byte getByte(long address) {
+        return MEMORY.getByte(address);
+    }
+
+    public short getShort(long address) {
+        return MEMORY.getShort(address);
+    }
+
+    public int getInt(long address) {
+        return MEMORY.getInt(address);
+    }
+
+    public long getNativeLong(long address) {
+        if(Native.LONG_SIZE == 8) {
+            return MEMORY.getLong(address);
+        } else {
+            return MEMORY.getInt(address);
+        }
+    }
+
+    public long getAddress(long address) {
+        if(Native.POINTER_SIZE == 8) {
+            return MEMORY.getLong(address);
+        } else {
+            return MEMORY.getInt(address) & 0xFFFFFFFFL;
+        }
+    }
+
+    public ByteBuffer getByteBuffer(long address, int size) {
+        return MEMORY.getByteBuffer(address, size).order(ByteOrder.nativeOrder());
+    }
+}
@@ -49,6 +49,10 @@ public interface FT2Library extends Library {
         
         public NativeLong x;
         public NativeLong y;
+
+        int offsetOf(String name) {
+            return fieldOffset(name);
+        }
     }
 
     static class FT_BBox extends Structure {
@@ -80,6 +84,50 @@ public interface FT2Library extends Library {
         public FT_Generic_Finalizer finalizer;
     }
 
+    public interface FT_Stream_IoFunc extends Callback {
+        public NativeLong invoke(Pointer stream, NativeLong offset, Pointer buffer, NativeLong count);
+    }
+
+    public interface FT_Stream_CloseFunc extends Callback {
+        public void invoke(Pointer stream);
+    }
+
+    public static class FT_StreamRec extends Structure {
+        public Pointer             base;
+        public NativeLong          size;
+        public NativeLong          pos;
+        public Pointer             descriptor;  /* FT_StreamDesc union */
+        public Pointer             pathname;    /* FT_StreamDesc union */
+        public FT_Stream_IoFunc    read;
+        public FT_Stream_CloseFunc close;
+        public Pointer             memory;
+        public Pointer             cursor;
+        public Pointer             limit;
+    }
+
+    public static class FT_Open_Args extends Structure {
+        public int        flags;
+        public Pointer    memory_base;
+        public NativeLong memory_size;
+        public Pointer    pathname;
+        public Pointer    stream;
+        public Pointer    driver;
+        public int        num_params;
+        public Pointer    params;
+    }
+
+    public static class FT_Bitmap_Size extends Structure {
+        public short      height;
+        public short      width;
+        public NativeLong size;
+        public NativeLong x_ppem;
+        public NativeLong y_ppem;
+
+        int offsetOf(String name) {
+            return fieldOffset(name);
+        }
+    }
+
     public static class FT_Bitmap extends Structure {
         public int     rows;
         public int     width;
@@ -89,6 +137,10 @@ public interface FT2Library extends Library {
         public byte    pixel_mode;
         public byte    palette_mode;
         public Pointer palette;
+
+        int offsetOf(String name) {
+            return fieldOffset(name);
+        }
     }
 
     public static class FT_Size_Metrics extends Structure {
@@ -120,6 +172,10 @@ public interface FT2Library extends Library {
         public Pointer contours;        /* the contour end points             */
 
         public int     flags;           /* outline masks                      */
+
+        int offsetOf(String name) {
+            return fieldOffset(name);
+        }
     }
     
     public static class FT_GlyphSlot extends Structure {
@@ -154,6 +210,10 @@ public interface FT2Library extends Library {
 
         public Pointer           other;
         public Pointer           internal;
+
+        int offsetOf(String name) {
+            return fieldOffset(name);
+        }
     }
 
     public static class FT_CharMap extends Structure {
@@ -218,6 +278,10 @@ public interface FT2Library extends Library {
         public boolean hasKerning() {
             return (face_flags.intValue() & FT_FACE_FLAG_KERNING) != 0;
         }
+
+        public boolean hasColor() {
+            return (face_flags.intValue() & FT_FACE_FLAG_COLOR) != 0;
+        }
     }
 
     public static final int FT_FACE_FLAG_SCALABLE         = 1;
@@ -232,20 +296,29 @@ public interface FT2Library extends Library {
     public static final int FT_FACE_FLAG_GLYPH_NAMES      = 1 << 9;
     public static final int FT_FACE_FLAG_EXTERNAL_STREAM  = 1 << 10;
     public static final int FT_FACE_FLAG_HINTER           = 1 << 11;
+    public static final int FT_FACE_FLAG_COLOR            = 1 << 14;
+
+    public static final int FT_OPEN_MEMORY   = 1;
+    public static final int FT_OPEN_STREAM   = 1 << 1;
+    public static final int FT_OPEN_PATHNAME = 1 << 2;
 
-    public static final int FT_KERNING_DEFAULT = 0;
+    public static final int FT_KERNING_DEFAULT  = 0;
+    public static final int FT_KERNING_UNFITTED = 1;
     
     public static final int FT_RENDER_MODE_NORMAL = 0;
     public static final int FT_RENDER_MODE_LIGHT  = 1;
     public static final int FT_RENDER_MODE_MONO   = 2;
     public static final int FT_RENDER_MODE_LCD    = 3;
     public static final int FT_RENDER_MODE_LCD_V  = 4;
+    public static final int FT_RENDER_MODE_SDF    = 5;
 
     public static final int FT_LOAD_DEFAULT        = 0;
     public static final int FT_LOAD_NO_HINTING     = 1 << 1;
     public static final int FT_LOAD_RENDER         = 1 << 2;
+    public static final int FT_LOAD_NO_BITMAP      = 1 << 3;
     public static final int FT_LOAD_FORCE_AUTOHINT = 1 << 5;
     public static final int FT_LOAD_NO_AUTOHINT    = 1 << 15;
+    public static final int FT_LOAD_COLOR          = 1 << 20;
     public static final int FT_LOAD_TARGET_NORMAL  = FT_RENDER_MODE_NORMAL << 16;
     public static final int FT_LOAD_TARGET_LIGHT   = FT_RENDER_MODE_LIGHT  << 16;
     public static final int FT_LOAD_TARGET_MONO    = FT_RENDER_MODE_MONO   << 16;
@@ -259,8 +332,14 @@ public interface FT2Library extends Library {
     public static final int FT_PIXEL_MODE_GRAY4 = 4;
     public static final int FT_PIXEL_MODE_LCD   = 5;
     public static final int FT_PIXEL_MODE_LCD_V = 6;
+    public static final int FT_PIXEL_MODE_BGRA  = 7;
     
-    public static final int FT_GLYPH_FORMAT_BITMAP = FT2Helper.FT_IMAGE_TAG('b', 'i', 't', 's');
+    public static final int FT_GLYPH_FORMAT_BITMAP  = FT2Helper.FT_IMAGE_TAG('b', 'i', 't', 's');
+    public static final int FT_GLYPH_FORMAT_OUTLINE = FT2Helper.FT_IMAGE_TAG('o', 'u', 't', 'l');
+
+    public static final int FT_CURVE_TAG_CONIC = 0;
+    public static final int FT_CURVE_TAG_ON    = 1;
+    public static final int FT_CURVE_TAG_CUBIC = 2;
 
     public static final int FT_TRUETYPE_ENGINE_TYPE_NONE       = 0;
     public static final int FT_TRUETYPE_ENGINE_TYPE_UNPATENTED = 1;
@@ -271,20 +350,27 @@ public interface FT2Library extends Library {
 
     void FT_Library_Version(Pointer library, IntByReference amajor, IntByReference aminor, IntByReference apatch);
     int FT_Get_TrueType_Engine_Type(Pointer library);
+    int FT_Property_Set(Pointer library, String module_name, String property_name, Pointer value);
 
     int FT_New_Memory_Face(Pointer library, ByteBuffer file_base, NativeLong file_size, NativeLong face_index, PointerByReference aface);
+    int FT_Open_Face(Pointer library, FT_Open_Args args, NativeLong face_index, PointerByReference aface);
     int FT_Done_Face(Pointer face);
 
     int FT_New_Size(Pointer face, PointerByReference size);
+    int FT_Done_Size(Pointer size);
     int FT_Activate_Size(Pointer size);
     
     int FT_Set_Char_Size(Pointer face, int char_width, int char_height, int horz_resolution, int vert_resolution);
     int FT_Set_Pixel_Sizes(Pointer face, int pixel_width, int pixel_height);
+    int FT_Select_Size(Pointer face, int strike_index);
     int FT_Load_Glyph(Pointer face, int glyph_index, int load_flags);
     int FT_Load_Char(Pointer face, NativeLong char_index, int load_flags);
     int FT_Render_Glyph(FT_GlyphSlot slot, int render_mode);
+    int FT_Render_Glyph(Pointer slot, int render_mode);
     int FT_Get_Kerning(Pointer face, int left_glyph, int right_glyph, int kern_mode, FT_Vector akerning);
+    int FT_Get_Kerning(Pointer face, int left_glyph, int right_glyph, int kern_mode, Pointer akerning);
     int FT_Get_Char_Index(Pointer face, NativeLong char_code);
+    int FT_Get_Advance(Pointer face, int gindex, int load_flags, Pointer padvance);
 
     NativeLong FT_Get_First_Char(Pointer face, IntByReference agindex);
     NativeLong FT_Get_Next_Char(Pointer face, NativeLong char_code, IntByReference agindex);
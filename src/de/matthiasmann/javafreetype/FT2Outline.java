@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+
+/**
+ * Decodes the FT_Outline of a glyph slot into path segments.
+ * 
+ * <p>The points, tags and contours are read with one bulk copy each into
+ * scratch arrays which are reused between glyphs. The decoding follows
+ * FT_Outline_Decompose: consecutive conic control points have an implied
+ * on curve point in their middle.</p>
+ * 
+ * <p>Coordinates are emitted in pixels with the Y axis pointing up.</p>
+ * 
+ * <p>This class is not thread safe.</p>
+ *
+ * @author Matthias Mann
+ */
+final class FT2Outline {
+
+    static final int FT_ERR_INVALID_GLYPH_FORMAT = 0x12;
+    static final int FT_ERR_INVALID_OUTLINE = 0x14;
+
+    static final int OUTLINE_N_CONTOURS;
+    static final int OUTLINE_N_POINTS;
+    static final int OUTLINE_POINTS;
+    static final int OUTLINE_TAGS;
+    static final int OUTLINE_CONTOURS;
+
+    static {
+        FT_GlyphSlot slot = new FT_GlyphSlot();
+        FT_Outline outline = new FT_Outline();
+
+        int outlineOffset = slot.offsetOf("outline");
+        OUTLINE_N_CONTOURS = outlineOffset + outline.offsetOf("n_contours");
+        OUTLINE_N_POINTS = outlineOffset + outline.offsetOf("n_points");
+        OUTLINE_POINTS = outlineOffset + outline.offsetOf("points");
+        OUTLINE_TAGS = outlineOffset + outline.offsetOf("tags");
+        OUTLINE_CONTOURS = outlineOffset + outline.offsetOf("contours");
+    }
+
+    private float[] coords = new float[256];
+    private long[] longScratch;
+    private int[] intScratch;
+    private byte[] tags = new byte[128];
+    private short[] contours = new short[16];
+
+    /**
+     * Decodes the outline of the glyph which is loaded in the slot.
+     * 
+     * @param slot the glyph slot
+     * @param sink receives the path segments
+     * @throws FreeTypeException if the glyph is not an outline or the outline is invalid
+     */
+    void decode(Pointer slot, FreeTypeOutlineSink sink) throws FreeTypeException {
+        if(FT2GlyphSlot.getFormat(slot) != FT_GLYPH_FORMAT_OUTLINE) {
+            throw new FreeTypeException(FT_ERR_INVALID_GLYPH_FORMAT);
+        }
+
+        final int numContours = slot.getShort(OUTLINE_N_CONTOURS) & 0xFFFF;
+        final int numPoints = slot.getShort(OUTLINE_N_POINTS) & 0xFFFF;
+        if(numContours == 0 || numPoints == 0) {
+            return;
+        }
+
+        readOutline(slot, numContours, numPoints);
+
+        final float[] c = coords;
+        final byte[] t = tags;
+        int first = 0;
+
+        for(int n=0 ; n<numContours ; n++) {
+            int last = contours[n] & 0xFFFF;
+            if(last < first || last >= numPoints) {
+                throw new FreeTypeException(FT_ERR_INVALID_OUTLINE);
+            }
+
+            float startX = c[first*2];
+            float startY = c[first*2+1];
+            int point = first;
+            int limit = last;
+
+            int tag = t[first] & 3;
+            if(tag == FT_CURVE_TAG_CUBIC) {
+                throw new FreeTypeException(FT_ERR_INVALID_OUTLINE);
+            }
+            if(tag == FT_CURVE_TAG_CONIC) {
+                // start at the last point if it is on the curve,
+                // otherwise at the implied point between first and last
+                if((t[last] & 3) == FT_CURVE_TAG_ON) {
+                    startX = c[last*2];
+                    startY = c[last*2+1];
+                    limit--;
+                } else {
+                    startX = (startX + c[last*2]) * 0.5f;
+                    startY = (startY + c[last*2+1]) * 0.5f;
+                }
+                point--;
+            }
+
+            sink.moveTo(startX, startY);
+
+            contour: while(point < limit) {
+                point++;
+                switch(t[point] & 3) {
+                    case FT_CURVE_TAG_ON:
+                        sink.lineTo(c[point*2], c[point*2+1]);
+                        break;
+
+                    case FT_CURVE_TAG_CONIC: {
+                        float ctrlX = c[point*2];
+                        float ctrlY = c[point*2+1];
+                        while(point < limit) {
+                            point++;
+                            float x = c[point*2];
+                            float y = c[point*2+1];
+                            int nextTag = t[point] & 3;
+                            if(nextTag == FT_CURVE_TAG_ON) {
+                                sink.quadTo(ctrlX, ctrlY, x, y);
+                                continue contour;
+                            }
+                            if(nextTag != FT_CURVE_TAG_CONIC) {
+                                throw new FreeTypeException(FT_ERR_INVALID_OUTLINE);
+                            }
+                            sink.quadTo(ctrlX, ctrlY, (ctrlX + x) * 0.5f, (ctrlY + y) * 0.5f);
+                            ctrlX = x;
+                            ctrlY = y;
+                        }
+                        sink.quadTo(ctrlX, ctrlY, startX, startY);
+                        break contour;
+                    }
+
+                    default: {
+                        if(point + 1 > limit || (t[point+1] & 3) != FT_CURVE_TAG_CUBIC) {
+                            throw new FreeTypeException(FT_ERR_INVALID_OUTLINE);
+                        }
+                        int ctrl = point;
+                        point += 2;
+                        if(point <= limit) {
+                            sink.cubicTo(c[ctrl*2], c[ctrl*2+1], c[ctrl*2+2], c[ctrl*2+3],
+                                    c[point*2], c[point*2+1]);
+                            break;
+                        }
+                        sink.cubicTo(c[ctrl*2], c[ctrl*2+1], c[ctrl*2+2], c[ctrl*2+3],
+                                startX, startY);
+                        break contour;
+                    }
+                }
+            }
+
+            sink.close();
+            first = last + 1;
+        }
+    }
+
+    private void readOutline(Pointer slot, int numContours, int numPoints) {
+        if(coords.length < numPoints*2) {
+            coords = new float[numPoints*2];
+            tags = new byte[numPoints];
+        }
+        if(contours.length < numContours) {
+            contours = new short[numContours];
+        }
+
+        slot.getPointer(OUTLINE_TAGS).read(0, tags, 0, numPoints);
+        slot.getPointer(OUTLINE_CONTOURS).read(0, contours, 0, numContours);
+
+        // FT_Vector uses FT_Pos which is a C long in 26.6 format
+        final Pointer points = slot.getPointer(OUTLINE_POINTS);
+        final float[] c = coords;
+        final float scale = 1f / 64f;
+        if(Native.LONG_SIZE == 8) {
+            if(longScratch == null || longScratch.length < numPoints*2) {
+                longScratch = new long[numPoints*2];
+            }
+            points.read(0, longScratch, 0, numPoints*2);
+            for(int i=0 ; i<numPoints*2 ; i++) {
+                c[i] = longScratch[i] * scale;
+            }
+        } else {
+            if(intScratch == null || intScratch.length < numPoints*2) {
+                intScratch = new int[numPoints*2];
+            }
+            points.read(0, intScratch, 0, numPoints*2);
+            for(int i=0 ; i<numPoints*2 ; i++) {
+                c[i] = intScratch[i] * scale;
+            }
+        }
+    }
+}
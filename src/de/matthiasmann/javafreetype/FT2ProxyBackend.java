@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * Backend which uses the {@link FT2Library} interface proxy.
+ * This works with every JNA version and pointer size but is the slowest
+ * backend - each call wraps its addresses in new {@code Pointer} objects.
+ *
+ * @author Matthias Mann
+ */
+final class FT2ProxyBackend extends FT2JNABackend {
+
+    static final String NAME = "proxy";
+
+    private final FT2Library lib;
+
+    FT2ProxyBackend(FT2Library lib) {
+        this.lib = lib;
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public int FT_Activate_Size(long size) {
+        return lib.FT_Activate_Size(new Pointer(size));
+    }
+
+    public int FT_Set_Pixel_Sizes(long face, int pixel_width, int pixel_height) {
+        return lib.FT_Set_Pixel_Sizes(new Pointer(face), pixel_width, pixel_height);
+    }
+
+    public int FT_Load_Glyph(long face, int glyph_index, int load_flags) {
+        return lib.FT_Load_Glyph(new Pointer(face), glyph_index, load_flags);
+    }
+
+    public int FT_Load_Char(long face, int char_code, int load_flags) {
+        return lib.FT_Load_Char(new Pointer(face), new NativeLong(char_code), load_flags);
+    }
+
+    public int FT_Get_Char_Index(long face, int char_code) {
+        return lib.FT_Get_Char_Index(new Pointer(face), new NativeLong(char_code));
+    }
+
+    public int FT_Get_First_Char(long face, long agindex) {
+        IntByReference ref = new IntByReference();
+        int charCode = lib.FT_Get_First_Char(new Pointer(face), ref).intValue();
+        MEMORY.setInt(agindex, ref.getValue());
+        return charCode;
+    }
+
+    public int FT_Get_Next_Char(long face, int char_code, long agindex) {
+        IntByReference ref = new IntByReference();
+        int charCode = lib.FT_Get_Next_Char(new Pointer(face), new NativeLong(char_code), ref).intValue();
+        MEMORY.setInt(agindex, ref.getValue());
+        return charCode;
+    }
+
+    public int FT_Get_Kerning(long face, int left_glyph, int right_glyph, int kern_mode, long akerning) {
+        return lib.FT_Get_Kerning(new Pointer(face), left_glyph, right_glyph, kern_mode, new Pointer(akerning));
+    }
+}
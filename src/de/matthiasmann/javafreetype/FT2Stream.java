@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+
+/**
+ * A FreeType2 stream which reads from a {@link FreeTypeStreamSource}.
+ * 
+ * <p>FreeType keeps a pointer to the stream record and the callbacks until
+ * the face is destroyed - this object must be strongly referenced by the
+ * font until then.</p>
+ *
+ * @author Matthias Mann
+ */
+final class FT2Stream {
+
+    private static final NativeLong ZERO = new NativeLong(0);
+    private static final NativeLong ONE = new NativeLong(1);
+
+    final FreeTypeStreamSource source;
+    private final long size;
+    private final FT_StreamRec rec;
+    private final FT_Stream_IoFunc readFunc;
+    private final FT_Stream_CloseFunc closeFunc;
+    private Throwable readError;
+    private boolean closed;
+
+    FT2Stream(FreeTypeStreamSource source) throws IOException {
+        this.source = source;
+        this.size = source.size();
+        this.readFunc = new FT_Stream_IoFunc() {
+            public NativeLong invoke(Pointer stream, NativeLong offset, Pointer buffer, NativeLong count) {
+                return read(offset.longValue(), buffer, count.longValue());
+            }
+        };
+        this.closeFunc = new FT_Stream_CloseFunc() {
+            public void invoke(Pointer stream) {
+                closeSource();
+            }
+        };
+        
+        rec = new FT_StreamRec();
+        rec.size = new NativeLong(size);
+        rec.pos = ZERO;
+        rec.read = readFunc;
+        rec.close = closeFunc;
+        rec.write();
+        // FreeType owns the record from now on
+        rec.setAutoSynch(false);
+    }
+
+    FT_Open_Args createOpenArgs() {
+        FT_Open_Args args = new FT_Open_Args();
+        args.flags = FT_OPEN_STREAM;
+        args.stream = rec.getPointer();
+        return args;
+    }
+
+    /**
+     * Returns and clears the exception of the last failed read.
+     */
+    Throwable takeReadError() {
+        Throwable ex = readError;
+        readError = null;
+        return ex;
+    }
+
+    void closeSource() {
+        if(!closed) {
+            closed = true;
+            try {
+                source.release();
+            } catch (IOException ex) {
+                FT2Helper.getLogger().log(Level.WARNING, "Can't close font source", ex);
+            }
+        }
+    }
+
+    NativeLong read(long offset, Pointer buffer, long count) {
+        if(count == 0) {
+            // a seek request - return 0 on success
+            return (offset >= 0 && offset <= size) ? ZERO : ONE;
+        }
+        try {
+            ByteBuffer dst = buffer.getByteBuffer(0, count);
+            return new NativeLong(Math.max(0, source.readFully(offset, dst)));
+        } catch (Throwable ex) {
+            readError = ex;
+            FT2Helper.getLogger().log(Level.WARNING, "Can't read font data", ex);
+            // a short read is reported as an error by FreeType
+            return ZERO;
+        }
+    }
+}
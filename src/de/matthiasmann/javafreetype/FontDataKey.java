@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+
+/**
+ * A small identity token for font data (a {@code ByteBuffer} or a
+ * {@link FreeTypeStreamSource}).
+ * 
+ * <p>Caches use the token as key instead of the font data itself, so cached
+ * glyphs of closed fonts don't keep the font data alive. All fonts which use
+ * the same font data object get the same token while the data is reachable.</p>
+ *
+ * @author Matthias Mann
+ */
+final class FontDataKey {
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+    private static final HashMap<Integer, Entry> ENTRIES = new HashMap<Integer, Entry>();
+
+    private FontDataKey() {
+    }
+
+    /**
+     * Returns the token for the font data - compared by identity.
+     * 
+     * @param data the font data
+     * @return the token
+     */
+    static synchronized FontDataKey get(Object data) {
+        expunge();
+        Integer hash = System.identityHashCode(data);
+        Entry head = ENTRIES.get(hash);
+        for(Entry e=head ; e!=null ; e=e.next) {
+            if(e.get() == data) {
+                return e.key;
+            }
+        }
+        Entry entry = new Entry(data, hash, new FontDataKey(), head);
+        ENTRIES.put(hash, entry);
+        return entry.key;
+    }
+
+    private static void expunge() {
+        Entry stale;
+        while((stale = (Entry)QUEUE.poll()) != null) {
+            Entry head = ENTRIES.get(stale.hash);
+            if(head == stale) {
+                if(stale.next != null) {
+                    ENTRIES.put(stale.hash, stale.next);
+                } else {
+                    ENTRIES.remove(stale.hash);
+                }
+            } else {
+                for(Entry e=head ; e!=null ; e=e.next) {
+                    if(e.next == stale) {
+                        e.next = stale.next;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    static final class Entry extends WeakReference<Object> {
+        final Integer hash;
+        final FontDataKey key;
+        Entry next;
+
+        Entry(Object data, Integer hash, FontDataKey key, Entry next) {
+            super(data, QUEUE);
+            this.hash = hash;
+            this.key = key;
+            this.next = next;
+        }
+    }
+}
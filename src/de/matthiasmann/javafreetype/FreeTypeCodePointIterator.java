@@ -29,7 +29,6 @@
  */
 package de.matthiasmann.javafreetype;
 
-import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 import java.io.IOException;
@@ -45,7 +44,8 @@ public final class FreeTypeCodePointIterator {
     private final FreeTypeFont font;
     private final Pointer face;
     private final IntByReference glyphIndex;
-    private NativeLong codePoint;
+    private int codePoint;
+    private boolean started;
 
     FreeTypeCodePointIterator(FreeTypeFont font) {
         this.font = font;
@@ -62,12 +62,13 @@ public final class FreeTypeCodePointIterator {
     public boolean nextCodePoint() throws IOException {
         font.ensureOpen();
         
-        if(codePoint == null) {
-            codePoint = FT2Helper.INSTANCE.FT_Get_First_Char(face, glyphIndex);
+        if(!started) {
+            codePoint = FT2Helper.FT_Get_First_Char(face, glyphIndex);
+            started = true;
         } else if(glyphIndex.getValue() == 0) {
             return false;
         } else {
-            codePoint = FT2Helper.INSTANCE.FT_Get_Next_Char(face, codePoint, glyphIndex);
+            codePoint = FT2Helper.FT_Get_Next_Char(face, codePoint, glyphIndex);
         }
 
         return glyphIndex.getValue() != 0;
@@ -90,7 +91,7 @@ public final class FreeTypeCodePointIterator {
      */
     public int getCodePoint() {
         ensureGlyphIndex();
-        return codePoint.intValue();
+        return codePoint;
     }
 
     private void ensureGlyphIndex() {
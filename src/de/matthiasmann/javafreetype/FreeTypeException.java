@@ -81,6 +81,8 @@ public class FreeTypeException extends IOException {
         ERROR_MESSAGES[0x08] = "broken table";
         ERROR_MESSAGES[0x09] = "broken offset within table";
         ERROR_MESSAGES[0x0A] = "array allocation size too large";
+        ERROR_MESSAGES[0x0B] = "missing module";
+        ERROR_MESSAGES[0x0C] = "missing property";
 
         ERROR_MESSAGES[0x10] = "invalid glyph index";
         ERROR_MESSAGES[0x11] = "invalid character code";
@@ -31,16 +31,23 @@ package de.matthiasmann.javafreetype;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
 import com.sun.jna.NativeLong;
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import com.sun.jna.Pointer;
 import java.awt.Point;
+import java.awt.geom.GeneralPath;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
 
 import static de.matthiasmann.javafreetype.FT2Library.*;
 import static de.matthiasmann.javafreetype.FT2Helper.*;
@@ -50,6 +57,13 @@ import static de.matthiasmann.javafreetype.FT2Helper.*;
  * 
  * <p>
  * NOTE: This class is <b>NOT</b> thread safe.
+ * Use a {@link FreeTypeFontPool} to render a font from multiple threads.
+ * </p>
+ * <p>
+ * Fonts should be closed when they are no longer needed. The native face of
+ * a font which was not closed is released after the font has been garbage
+ * collected. Set the system property {@code de.matthiasmann.javafreetype.leakDetection}
+ * to {@code true} to log where such fonts were created.
  * </p>
  *
  * @author Matthias Mann
@@ -57,22 +71,64 @@ import static de.matthiasmann.javafreetype.FT2Helper.*;
 public class FreeTypeFont implements Closeable {
 
     /**
-     * The maximum font file size for {@link #create(java.io.File) }
+     * The maximum font file size which {@link #create(java.io.File) } reads
+     * into a direct buffer - larger files are memory mapped.
      */
     public static final int MAX_FONT_FILE_SIZE = 32*1024*1024;
 
+    /** number of load flag combinations cached per size */
+    static final int MAX_ADVANCE_CACHES = 4;
+
     /** need to keep ByteBuffer alive - it is used by native code */
     ByteBuffer fontBuffer;
-    Pointer library;
+    /** need to keep the stream alive - it is used by native code */
+    FT2Stream stream;
+    /** releases the face when it is closed or collected */
+    FaceResource resource;
+    /** identifies the font data in caches without keeping it alive */
+    final FontDataKey dataKey;
+    /** index of this face in a font collection */
+    final int faceIndex;
+    FreeTypeLibrary library;
     FT_Face face;
     Size initialSize;
     Size activeSize;
+    /** incremented whenever the active size or its scale changes */
+    int sizeSerial;
+    /** Java copy of the char map - created on demand */
+    CharMapTable charMap;
+    /** native FT_Vector reused for FT_Get_Kerning */
+    Memory kerningVector;
+    /** outline decoder - created on demand */
+    FT2Outline outline;
+    /** layout used by measureWidth - created on demand */
+    FreeTypeTextLayout measureLayout;
+    /** true while the glyph slot holds the glyph of the last loadGlyph/loadCodePoint call */
+    boolean glyphLoaded;
+    /** bitmap of the glyph slot - reused by getGlyphBitmap */
+    FT2Bitmap glyphBitmap;
+    /** row buffer for pixel mode conversion - grows on demand */
+    byte[] rowScratch;
+    /** color table of the last copyGlyphToByteBufferColor call */
+    ColorBlendTable blendTable;
+
+    private FreeTypeFont(FreeTypeLibrary library, ByteBuffer file, int faceIndex) throws IOException {
+        this(library, file, null, faceIndex, library.newMemoryFace(file, faceIndex, false));
+    }
+
+    private FreeTypeFont(FreeTypeLibrary library, FT2Stream stream, int faceIndex) throws IOException {
+        this(library, null, stream, faceIndex, library.openStreamFace(stream, faceIndex, false));
+    }
 
-    private FreeTypeFont(Pointer library, ByteBuffer file) throws FreeTypeException {
+    private FreeTypeFont(FreeTypeLibrary library, ByteBuffer file, FT2Stream stream, int faceIndex, FT_Face face) {
         this.fontBuffer = file;
+        this.stream = stream;
+        this.dataKey = FontDataKey.get((stream != null) ? stream.source : file);
+        this.faceIndex = faceIndex;
+        this.face = face;
         this.library = library;
-        this.face = FT_New_Memory_Face(library, file, 0);
-        this.initialSize = new Size(face.size.getPointer());
+        this.resource = new FaceResource(this, library, face.getPointer(), file, stream);
+        this.initialSize = new Size(face.size.getPointer(), false);
         this.activeSize = initialSize;
     }
 
@@ -90,6 +146,58 @@ public class FreeTypeFont implements Closeable {
         return face.style_name;
     }
 
+    /**
+     * Returns the number of faces in the font file. This is greater than 1
+     * for font collections (TTC/OTC files).
+     * 
+     * @return the number of faces in the font file
+     * @throws IOException if the font has been closed
+     * @see #openFace(int) 
+     */
+    public int getNumFaces() throws IOException {
+        ensureOpen();
+        return face.num_faces.intValue();
+    }
+
+    /**
+     * Returns the index of this face in the font file.
+     * @return the index of this face in the font file
+     */
+    public int getFaceIndex() {
+        return faceIndex;
+    }
+
+    /**
+     * Opens another face of the same font file.
+     * 
+     * <p>The new face shares the font data and the library with this face -
+     * the font data is not copied. The new face must be closed separately,
+     * and stays usable when this face is closed.</p>
+     * 
+     * @param faceIndex the index of the face to open
+     * @return the new FreeTypeFont instance
+     * @throws IOException if the face could not be loaded, or if the font has been closed
+     * @throws IllegalArgumentException if faceIndex is not in the range {@code 0 <= faceIndex < getNumFaces()}
+     */
+    public FreeTypeFont openFace(int faceIndex) throws IOException {
+        ensureOpen();
+        if(faceIndex < 0 || faceIndex >= face.num_faces.intValue()) {
+            throw new IllegalArgumentException("faceIndex");
+        }
+        // this face keeps the library alive even if it has already been closed
+        if(stream != null) {
+            FT2Stream newStream = openStream(stream.source);
+            return new FreeTypeFont(library, null, newStream, faceIndex,
+                    library.openStreamFace(newStream, faceIndex, true));
+        }
+        FreeTypeFont font = new FreeTypeFont(library, fontBuffer, null, faceIndex,
+                library.newMemoryFace(fontBuffer, faceIndex, true));
+        if(resource.registryData != null) {
+            font.resource.registryData = resource.registryData.acquire();
+        }
+        return font;
+    }
+
     public Size getActiveSize() throws IOException {
         ensureOpen();
         return activeSize;
@@ -100,14 +208,22 @@ public class FreeTypeFont implements Closeable {
         if(activeSize.getFTF() != this) {
             throw new IllegalArgumentException("Size doesn't belong to this font");
         }
-        checkReturnCode(INSTANCE.FT_Activate_Size(activeSize.size));
+        if(activeSize.closed) {
+            throw new IllegalArgumentException("Size has been closed");
+        }
+        checkReturnCode(FT_Activate_Size(activeSize.size));
         this.activeSize = activeSize;
+        sizeSerial++;
+        face.read();
     }
     
     /**
      * Allocates a new {@code Size} object to store a font size.
      * The new {@code Size} is not yet activated.
      * 
+     * <p>The native size is released by {@link Size#close() }, when the font
+     * is closed, or when the {@code Size} is no longer referenced.</p>
+     * 
      * @return
      * @throws IOException 
      * @see #setActiveSize(de.matthiasmann.javafreetype.FreeTypeFont.Size) 
@@ -115,22 +231,93 @@ public class FreeTypeFont implements Closeable {
      */
     public Size createNewSize() throws IOException {
         ensureOpen();
-        return new Size(FT2Helper.FT_New_Size(face.getPointer()));
+        resource.doneUnusedSizes();
+        return new Size(FT2Helper.FT_New_Size(face.getPointer()), true);
     }
     
     public void setCharSize(float width, float height, int horizontalResolution, int verticalResolution) throws IOException {
         ensureOpen();
         checkReturnCode(INSTANCE.FT_Set_Char_Size(face.getPointer(),
                 to26_6(width), to26_6(height), horizontalResolution, verticalResolution));
+        activeSize.invalidateMetrics();
+        sizeSerial++;
         face.read();
     }
 
     public void setPixelSize(int width, int height) throws IOException {
         ensureOpen();
-        checkReturnCode(INSTANCE.FT_Set_Pixel_Sizes(face.getPointer(), width, height));
+        checkReturnCode(FT_Set_Pixel_Sizes(face.getPointer(), width, height));
+        activeSize.invalidateMetrics();
+        sizeSerial++;
         face.read();
     }
 
+    /**
+     * Returns the pixel sizes of the bitmap strikes in this font.
+     * Fonts with only bitmap strikes (eg color emoji fonts) must select one
+     * of them with {@link #selectFixedSize(int) }.
+     * 
+     * @return the pixel sizes of the strikes - empty if the font has no strikes
+     * @throws IOException if the font is closed
+     */
+    public int[] getFixedSizes() throws IOException {
+        ensureOpen();
+        final int count = face.num_fixed_sizes;
+        final int[] sizes = new int[count];
+        if(count > 0) {
+            FT_Bitmap_Size bs = new FT_Bitmap_Size();
+            final int entrySize = bs.size();
+            final int yPpemOffset = bs.offsetOf("y_ppem");
+            for(int i=0 ; i<count ; i++) {
+                sizes[i] = round26_6(getNativeLong(face.available_sizes, i*entrySize + yPpemOffset));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Selects the bitmap strike which best matches the requested size. This
+     * is the smallest strike which is at least as large as the requested
+     * size, or the largest strike if all are smaller. Color bitmap glyphs
+     * are usually scaled to the requested size when they are drawn.
+     * 
+     * @param pixelSize the requested size in pixels
+     * @return the pixel size of the selected strike
+     * @throws IOException if the font has no bitmap strikes or an error occured
+     * @see #getFixedSizes() 
+     */
+    public int selectFixedSize(int pixelSize) throws IOException {
+        int[] sizes = getFixedSizes();
+        if(sizes.length == 0) {
+            throw new IOException("Font has no bitmap strikes");
+        }
+        int best = 0;
+        for(int i=1 ; i<sizes.length ; i++) {
+            int s = sizes[i];
+            int b = sizes[best];
+            if(b < pixelSize ? s > b : (s >= pixelSize && s < b)) {
+                best = i;
+            }
+        }
+        checkReturnCode(INSTANCE.FT_Select_Size(face.getPointer(), best));
+        activeSize.invalidateMetrics();
+        sizeSerial++;
+        face.read();
+        return sizes[best];
+    }
+
+    /**
+     * Checks if this font contains color glyphs (eg CBDT, sbix or COLR emoji).
+     * 
+     * @return true if the font has color glyphs
+     * @throws IOException if the font is closed
+     * @see #loadColorGlyph(int) 
+     */
+    public boolean hasColorGlyphs() throws IOException {
+        ensureOpen();
+        return face.hasColor();
+    }
+
     public int getAscent() throws IOException {
         ensureOpen();
         if(face.isScalable()) {
@@ -225,7 +412,63 @@ public class FreeTypeFont implements Closeable {
 
     public int getGlyphForCodePoint(int codepoint) throws IOException {
         ensureOpen();
-        return INSTANCE.FT_Get_Char_Index(face.getPointer(), new NativeLong(codepoint));
+        if(charMap != null) {
+            return charMap.get(codepoint);
+        }
+        return FT_Get_Char_Index(face.getPointer(), codepoint);
+    }
+
+    /**
+     * Maps several code points to glyph indices.
+     * 
+     * <p>The first call builds a Java copy of the char map - after that the
+     * mapping doesn't call into FreeType.</p>
+     * 
+     * @param codepoints the unicode code points
+     * @param off the index of the first code point
+     * @param len the number of code points to map
+     * @param outGlyphs receives the glyph index for {@code codepoints[off+i]} at index {@code i}
+     * @throws IOException if an error occured
+     * @see #getGlyphForCodePoint(int) 
+     */
+    public void getGlyphsForCodePoints(int[] codepoints, int off, int len, int[] outGlyphs) throws IOException {
+        if(off < 0 || len < 0 || off + len > codepoints.length || len > outGlyphs.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCharMap().get(codepoints, off, len, outGlyphs);
+    }
+
+    /**
+     * Maps the code points of a text to glyph indices.
+     * Surrogate pairs are combined, unpaired surrogates are mapped as is.
+     * 
+     * @param text the text
+     * @param outGlyphs receives the glyph indices - must be at least as long as the text
+     * @return the number of glyph indices stored
+     * @throws IOException if an error occured
+     * @see #getGlyphsForCodePoints(int[], int, int, int[]) 
+     */
+    public int getGlyphsForCodePoints(CharSequence text, int[] outGlyphs) throws IOException {
+        return getGlyphsForCodePoints(text, 0, text.length(), outGlyphs);
+    }
+
+    /**
+     * Maps the code points of a part of a text to glyph indices.
+     * Surrogate pairs are combined, unpaired surrogates are mapped as is.
+     * 
+     * @param text the text
+     * @param start the index of the first char
+     * @param end the index after the last char
+     * @param outGlyphs receives the glyph indices - must be at least {@code end-start} long
+     * @return the number of glyph indices stored
+     * @throws IOException if an error occured
+     * @see #getGlyphsForCodePoints(int[], int, int, int[]) 
+     */
+    public int getGlyphsForCodePoints(CharSequence text, int start, int end, int[] outGlyphs) throws IOException {
+        if(start < 0 || start > end || end > text.length() || end - start > outGlyphs.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return ensureCharMap().get(text, start, end, outGlyphs);
     }
 
     public boolean hasKerning() throws IOException {
@@ -236,16 +479,255 @@ public class FreeTypeFont implements Closeable {
     public Point getKerning(int leftGlyph, int rightGlyph) throws IOException {
         ensureOpen();
         if(face.hasKerning()) {
-            FT_Vector vec = new FT_Vector();
-            vec.setAutoSynch(false);
-            checkReturnCode(INSTANCE.FT_Get_Kerning(face.getPointer(), leftGlyph, rightGlyph, FT_KERNING_DEFAULT, vec));
-            vec.read();
-            return new Point(round26_6(vec.x), round26_6(vec.y));
+            int value = getKerning26_6(leftGlyph, rightGlyph);
+            return new Point(
+                    round26_6(KerningTable.unpackX(value)),
+                    round26_6(KerningTable.unpackY(value)));
         } else {
             return new Point();
         }
     }
 
+    /**
+     * Returns the horizontal kerning between two glyphs at the active size.
+     * 
+     * <p>Kerning values are cached per {@link Size} - repeated lookups don't
+     * call FreeType and don't allocate objects. The cache stores up to 16384
+     * pairs with kerning, pairs without kerning are only remembered in a
+     * small fixed size cache.</p>
+     * 
+     * @param leftGlyph the glyph index of the left glyph
+     * @param rightGlyph the glyph index of the right glyph
+     * @return the horizontal kerning in pixels
+     * @throws IOException if an error occured
+     */
+    public int getKerningX(int leftGlyph, int rightGlyph) throws IOException {
+        ensureOpen();
+        if(face.hasKerning()) {
+            return round26_6(KerningTable.unpackX(getKerning26_6(leftGlyph, rightGlyph)));
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the vertical kerning between two glyphs at the active size.
+     * 
+     * @param leftGlyph the glyph index of the left glyph
+     * @param rightGlyph the glyph index of the right glyph
+     * @return the vertical kerning in pixels
+     * @throws IOException if an error occured
+     * @see #getKerningX(int, int) 
+     */
+    public int getKerningY(int leftGlyph, int rightGlyph) throws IOException {
+        ensureOpen();
+        if(face.hasKerning()) {
+            return round26_6(KerningTable.unpackY(getKerning26_6(leftGlyph, rightGlyph)));
+        }
+        return 0;
+    }
+
+    /**
+     * Fills the kerning cache of the active size with all pairs of the
+     * specified glyphs which have kerning.
+     * 
+     * <p>FreeType is called for the square of the number of glyphs, but only
+     * pairs with kerning are stored - each uses up to 48 bytes. The cache
+     * stores at most 16384 pairs; when it is full the remaining pairs are
+     * not precomputed and are looked up on demand.</p>
+     * 
+     * @param glyphs the glyph indices
+     * @param off the index of the first glyph
+     * @param len the number of glyphs
+     * @return the number of pairs with kerning in the cache of the active size
+     * @throws IOException if an error occured
+     * @see #getKerningX(int, int) 
+     */
+    public int precomputeKerning(int[] glyphs, int off, int len) throws IOException {
+        ensureOpen();
+        if(off < 0 || len < 0 || off + len > glyphs.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if(!face.hasKerning()) {
+            return 0;
+        }
+        KerningTable table = getKerningTable(FT_KERNING_DEFAULT);
+        for(int i=0 ; i<len && !table.isFull() ; i++) {
+            for(int j=0 ; j<len ; j++) {
+                getKerning26_6(glyphs[off+i], glyphs[off+j]);
+            }
+        }
+        return table.size();
+    }
+
+    /**
+     * Returns the grid fitted packed kerning in 26.6 format using the cache of the active size.
+     * @see KerningTable#pack(long, long) 
+     */
+    final int getKerning26_6(int leftGlyph, int rightGlyph) throws IOException {
+        return getKerning26_6(leftGlyph, rightGlyph, FT_KERNING_DEFAULT);
+    }
+
+    /**
+     * Returns the packed kerning in 26.6 format using the cache of the active size.
+     * 
+     * @param kernMode FT_KERNING_DEFAULT (grid fitted) or FT_KERNING_UNFITTED
+     * @see KerningTable#pack(long, long) 
+     */
+    final int getKerning26_6(int leftGlyph, int rightGlyph, int kernMode) throws IOException {
+        KerningTable table = getKerningTable(kernMode);
+        long key = KerningTable.key(leftGlyph, rightGlyph);
+        int slot = table.find(key);
+        if(slot >= 0) {
+            return table.getValueAt(slot);
+        }
+        if(table.isZero(key)) {
+            return 0;
+        }
+        if(kerningVector == null) {
+            kerningVector = new Memory(2 * Native.LONG_SIZE);
+        }
+        checkReturnCode(FT_Get_Kerning(face.getPointer(), leftGlyph, rightGlyph, kernMode, kerningVector));
+        int value = KerningTable.pack(
+                getNativeLong(kerningVector, 0),
+                getNativeLong(kerningVector, Native.LONG_SIZE));
+        if(value == 0) {
+            table.putZero(key);
+        } else {
+            table.insertAt(-(slot + 1), key, value);
+        }
+        return value;
+    }
+
+    private KerningTable getKerningTable(int kernMode) {
+        KerningTable[] tables = activeSize.kerning;
+        if(tables == null) {
+            // one table per kerning mode
+            tables = new KerningTable[2];
+            activeSize.kerning = tables;
+        }
+        KerningTable table = tables[kernMode];
+        if(table == null) {
+            table = new KerningTable();
+            tables[kernMode] = table;
+        }
+        return table;
+    }
+
+    /**
+     * Returns the hinted horizontal advance of a glyph at the active size.
+     * 
+     * <p>Advances are cached per {@link Size} - the glyph is only loaded
+     * once and no bitmap is rendered.</p>
+     * 
+     * <p>NOTE: This method may replace the glyph loaded in the font - load
+     * the glyph again before using the {@code copyGlyphTo*} methods.</p>
+     * 
+     * @param glyphIndex the glyph index for this font
+     * @return the advance in pixels
+     * @throws IOException if an error occured
+     */
+    public int getGlyphAdvance(int glyphIndex) throws IOException {
+        ensureOpen();
+        return round26_6(AdvanceCache.getAdvance(getAdvanceCache(FT_LOAD_DEFAULT).get(this, glyphIndex)));
+    }
+
+    /**
+     * Measures the advance width of a text at the active size.
+     * 
+     * <p>This uses the same hinted metrics and kerning as the default
+     * settings of {@link FreeTypeTextLayout}, but only the cached advances
+     * are needed - no glyphs are rendered.</p>
+     * 
+     * <p>NOTE: This method may replace the glyph loaded in the font - load
+     * the glyph again before using the {@code copyGlyphTo*} methods.</p>
+     * 
+     * @param text the text to measure
+     * @return the width in pixels
+     * @throws IOException if an error occured
+     */
+    public int measureWidth(CharSequence text) throws IOException {
+        return measureWidth(text, 0, text.length());
+    }
+
+    /**
+     * Measures the advance width of a part of a text at the active size.
+     * 
+     * <p>NOTE: This method may replace the glyph loaded in the font - load
+     * the glyph again before using the {@code copyGlyphTo*} methods.</p>
+     * 
+     * @param text the text to measure
+     * @param start the index of the first char
+     * @param end the index after the last char
+     * @return the width in pixels
+     * @throws IOException if an error occured
+     * @see #measureWidth(java.lang.CharSequence) 
+     */
+    public int measureWidth(CharSequence text, int start, int end) throws IOException {
+        if(start < 0 || start > end || end > text.length()) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+        return getMeasureLayout().measure(text, start, end);
+    }
+
+    /**
+     * Measures the advance width of several texts at the active size.
+     * 
+     * <p>NOTE: This method may replace the glyph loaded in the font - load
+     * the glyph again before using the {@code copyGlyphTo*} methods.</p>
+     * 
+     * @param texts the texts to measure
+     * @return the width in pixels of each text
+     * @throws IOException if an error occured
+     * @see #measureWidth(java.lang.CharSequence) 
+     */
+    public int[] measureWidths(CharSequence[] texts) throws IOException {
+        ensureOpen();
+        final FreeTypeTextLayout layout = getMeasureLayout();
+        int[] widths = new int[texts.length];
+        for(int i=0 ; i<texts.length ; i++) {
+            CharSequence text = texts[i];
+            widths[i] = layout.measure(text, 0, text.length());
+        }
+        return widths;
+    }
+
+    /**
+     * Returns the layout used by the measure methods. Measuring uses the
+     * default settings of {@link FreeTypeTextLayout}.
+     */
+    private FreeTypeTextLayout getMeasureLayout() {
+        if(measureLayout == null) {
+            measureLayout = new FreeTypeTextLayout(this);
+        }
+        return measureLayout;
+    }
+
+    /**
+     * Returns the advance cache of the active size for the load flags.
+     * Each size keeps up to {@link #MAX_ADVANCE_CACHES} caches - the least
+     * recently used one is replaced when another set of flags is requested.
+     */
+    final AdvanceCache getAdvanceCache(int loadFlags) {
+        AdvanceCache[] caches = activeSize.advances;
+        if(caches == null) {
+            caches = new AdvanceCache[MAX_ADVANCE_CACHES];
+            activeSize.advances = caches;
+        }
+        int idx = 0;
+        while(idx < caches.length - 1 && caches[idx] != null && caches[idx].loadFlags != loadFlags) {
+            idx++;
+        }
+        AdvanceCache cache = caches[idx];
+        if(cache == null || cache.loadFlags != loadFlags) {
+            cache = new AdvanceCache(face.num_glyphs.intValue(), loadFlags);
+        }
+        // move to front
+        System.arraycopy(caches, 0, caches, 1, idx);
+        caches[0] = cache;
+        return cache;
+    }
+
     /**
      * Loads a glyph using FT_LOAD_RENDER and FT_LOAD_TARGET_NORMAL.
      * 
@@ -264,10 +746,67 @@ public class FreeTypeFont implements Closeable {
     
     public FreeTypeGlyphInfo loadGlyph(int glyphIndex, int flags) throws IOException {
         ensureOpen();
-        checkReturnCode(INSTANCE.FT_Load_Glyph(face.getPointer(), glyphIndex, flags));
+        glyphLoaded = false;
+        checkReturnCode(FT_Load_Glyph(face.getPointer(), glyphIndex, flags));
+        glyphLoaded = true;
         return makeGlyphInfo();
     }
 
+    /**
+     * Loads a glyph using FT_LOAD_RENDER and FT_LOAD_COLOR. Color glyphs
+     * are returned as premultiplied BGRA bitmaps, other glyphs as coverage.
+     * 
+     * @param glyphIndex the glyph index for this font
+     * @return the glyph info
+     * @throws IOException if an error occured
+     * @see FreeTypeGlyphInfo#isColor() 
+     * @see #copyGlyphToByteBufferRGBA(java.nio.ByteBuffer, int) 
+     */
+    public FreeTypeGlyphInfo loadColorGlyph(int glyphIndex) throws IOException {
+        return loadGlyph(glyphIndex, FT_LOAD_RENDER | FT_LOAD_COLOR);
+    }
+
+    /**
+     * Loads the outline of a glyph and passes its segments to the sink.
+     * 
+     * <p>The outline is hinted unless {@link FT2Library#FT_LOAD_NO_HINTING}
+     * is specified. Embedded bitmaps are never used.</p>
+     * 
+     * @param glyphIndex the glyph index for this font
+     * @param flags the FreeType load flags
+     * @param sink receives the outline in pixels with the Y axis pointing up
+     * @return the glyph info - width and height are always 0
+     * @throws IOException if the glyph could not be loaded or has no outline
+     * @see FreeTypeOutlinePath
+     */
+    public FreeTypeGlyphInfo getGlyphOutline(int glyphIndex, int flags, FreeTypeOutlineSink sink) throws IOException {
+        if(sink == null) {
+            throw new NullPointerException("sink");
+        }
+        Pointer slot = loadGlyphSlot(glyphIndex, (flags & ~FT_LOAD_RENDER) | FT_LOAD_NO_BITMAP);
+        if(outline == null) {
+            outline = new FT2Outline();
+        }
+        outline.decode(slot, sink);
+        return new FreeTypeGlyphInfo(0, 0, 0, 0,
+                round26_6(FT2GlyphSlot.getAdvanceX(slot)),
+                round26_6(FT2GlyphSlot.getAdvanceY(slot)));
+    }
+
+    /**
+     * Returns the hinted outline of a glyph as Java2D shape with the glyph
+     * origin at (0,0).
+     * 
+     * @param glyphIndex the glyph index for this font
+     * @return the outline as path
+     * @throws IOException if the glyph could not be loaded or has no outline
+     */
+    public GeneralPath getGlyphOutline(int glyphIndex) throws IOException {
+        FreeTypeOutlinePath path = new FreeTypeOutlinePath();
+        getGlyphOutline(glyphIndex, FT_LOAD_DEFAULT, path);
+        return path.getPath();
+    }
+
     /**
      * Loads a glyph using FT_LOAD_RENDER and FT_LOAD_TARGET_NORMAL.
      * 
@@ -285,21 +824,52 @@ public class FreeTypeFont implements Closeable {
     
     public FreeTypeGlyphInfo loadCodePoint(int codepoint, int flags) throws IOException {
         ensureOpen();
-        checkReturnCode(INSTANCE.FT_Load_Char(face.getPointer(), new NativeLong(codepoint), flags));
+        glyphLoaded = false;
+        checkReturnCode(FT_Load_Char(face.getPointer(), codepoint, flags));
+        glyphLoaded = true;
         return makeGlyphInfo();
     }
 
     public boolean copyGlpyhToBufferedImage(BufferedImage img, int x, int y, Color color) throws IOException {
+        return copyGlpyhToBufferedImage(img, x, y, color, SubpixelOrder.RGB, null);
+    }
+
+    /**
+     * Copies the loaded glyph into a BufferedImage.
+     * 
+     * <p>LCD glyphs are copied to {@code TYPE_INT_ARGB} images with the
+     * maximum subpixel coverage as alpha and the color scaled per channel,
+     * so that blending with the image alpha gives the subpixel coverage.</p>
+     * 
+     * <p>Color glyphs keep their colors in {@code TYPE_INT_ARGB} and
+     * {@code TYPE_INT_ARGB_PRE} images - the color parameter is ignored.
+     * {@code TYPE_INT_ARGB_PRE} is the fastest format for color glyphs.</p>
+     * 
+     * @param img the destination image - TYPE_BYTE_GRAY, TYPE_INT_ARGB or TYPE_INT_ARGB_PRE
+     * @param x the X coordinate of the top left glyph pixel
+     * @param y the Y coordinate of the top left glyph pixel
+     * @param color the text color, or null for white
+     * @param order the subpixel order of the display - used for LCD glyphs
+     * @param filter the FIR filter for LCD glyphs, or null for no filtering
+     * @return false if the glyph has no bitmap, doesn't fit or has an unsupported pixel mode
+     * @throws IOException if no glyph was loaded
+     */
+    public boolean copyGlpyhToBufferedImage(BufferedImage img, int x, int y, Color color,
+            SubpixelOrder order, FreeTypeLCDFilter filter) throws IOException {
         ensureGlyphLoaded();
-        FT_Bitmap bitmap = face.glyph.bitmap;
-        if(bitmap.buffer == null) {
+        FT2Bitmap bitmap = getGlyphBitmap();
+        if(bitmap == null) {
             return false;
         }
         switch(img.getType()) {
             case BufferedImage.TYPE_BYTE_GRAY:
                 return FT2Helper.copyGlyphToBufferedImageGray(bitmap, img, x, y);
             case BufferedImage.TYPE_INT_ARGB:
-                return FT2Helper.copyGlyphToBufferedImageIntARGB(bitmap, img, x, y, color);
+                return FT2Helper.copyGlyphToBufferedImageIntARGB(bitmap, img, x, y, color,
+                        order == SubpixelOrder.BGR, filter);
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+                return FT2Helper.copyGlyphToBufferedImageIntARGBPre(bitmap, img, x, y, color,
+                        getRowScratch(bitmap.width));
             default:
                 throw new UnsupportedOperationException("unsupported BufferdImage type");
         }
@@ -307,41 +877,129 @@ public class FreeTypeFont implements Closeable {
 
     public boolean copyGlyphToByteBuffer(ByteBuffer dst, int stride) throws IOException {
         ensureGlyphLoaded();
-        FT_Bitmap bitmap = face.glyph.bitmap;
-        if(bitmap.buffer == null) {
+        FT2Bitmap bitmap = getGlyphBitmap();
+        if(bitmap == null) {
             return false;
         }
-        return FT2Helper.copyGlyphToByteBuffer(bitmap, dst, stride);
+        return FT2Helper.copyGlyphToByteBuffer(bitmap, dst, stride, getRowScratch(bitmap.width));
+    }
+
+    /**
+     * Copies the loaded glyph as packed RGB with 3 bytes per pixel starting
+     * at the current position of the buffer. The position is not changed.
+     * 
+     * <p>LCD glyphs use their subpixel coverage for the 3 channels, other
+     * glyphs use the same coverage for all channels. This allows atlases
+     * to store all glyphs in one format.</p>
+     * 
+     * @param dst the destination buffer
+     * @param stride the offset between rows in bytes
+     * @param order the subpixel order of the display
+     * @param filter the FIR filter for LCD glyphs, or null for no filtering
+     * @return false if the glyph has no bitmap or an unsupported pixel mode
+     * @throws IOException if no glyph was loaded
+     * @see FreeTypeGlyphInfo#getPixelWidth() 
+     * @see FreeTypeGlyphInfo#getPixelHeight() 
+     */
+    public boolean copyGlyphToByteBufferRGB(ByteBuffer dst, int stride, SubpixelOrder order, FreeTypeLCDFilter filter) throws IOException {
+        ensureGlyphLoaded();
+        FT2Bitmap bitmap = getGlyphBitmap();
+        if(bitmap == null) {
+            return false;
+        }
+        return FT2Helper.copyGlyphToByteBufferRGB(bitmap, dst, stride, order == SubpixelOrder.BGR,
+                filter, getRowScratch(bitmap.width));
+    }
+
+    /**
+     * Copies the loaded glyph as premultiplied RGBA with 4 bytes per pixel
+     * starting at the current position of the buffer. The position is not
+     * changed.
+     * 
+     * <p>Color glyphs keep their colors, coverage glyphs are written as
+     * white with the coverage as alpha. This allows atlases to store color
+     * and coverage glyphs in one format.</p>
+     * 
+     * @param dst the destination buffer
+     * @param stride the offset between rows in bytes
+     * @return false if the glyph has no bitmap or an unsupported pixel mode
+     * @throws IOException if no glyph was loaded
+     * @see #loadColorGlyph(int) 
+     */
+    public boolean copyGlyphToByteBufferRGBA(ByteBuffer dst, int stride) throws IOException {
+        ensureGlyphLoaded();
+        FT2Bitmap bitmap = getGlyphBitmap();
+        if(bitmap == null) {
+            return false;
+        }
+        return FT2Helper.copyGlyphToByteBufferRGBA(bitmap, dst, stride, getRowScratch(bitmap.width));
     }
 
     public boolean copyGlyphToByteArray(byte[] dst, int dstOff, int stride) throws IOException {
         ensureGlyphLoaded();
-        FT_Bitmap bitmap = face.glyph.bitmap;
-        if(bitmap.buffer == null) {
+        FT2Bitmap bitmap = getGlyphBitmap();
+        if(bitmap == null) {
             return false;
         }
         return FT2Helper.copyGlyphToByteArray(bitmap, dst, dstOff, stride);
     }
 
+    /**
+     * Copies the loaded glyph by blending between two colors using the
+     * coverage. The colors can have any number of channels, 1, 3 and 4
+     * channels use specialized code paths.
+     * 
+     * <p>The blend table for the colors is cached, so repeated calls with
+     * the same colors don't allocate.</p>
+     * 
+     * @param dst the destination buffer - written starting at its position
+     * @param stride the offset between rows in bytes
+     * @param bgColor the color for 0 coverage
+     * @param fgColor the color for full coverage
+     * @return false if the glyph has no bitmap or an unsupported pixel mode
+     * @throws IOException if no glyph was loaded
+     * @see #copyGlyphToByteBufferColor(java.nio.ByteBuffer, int, byte[], byte[], de.matthiasmann.javafreetype.FreeTypeFont.SubpixelOrder, de.matthiasmann.javafreetype.FreeTypeLCDFilter) 
+     */
     public boolean copyGlyphToByteBufferColor(ByteBuffer dst, int stride, byte[] bgColor, byte[] fgColor) throws IOException {
+        return copyGlyphToByteBufferColor(dst, stride, bgColor, fgColor, SubpixelOrder.RGB, null);
+    }
+
+    /**
+     * Copies the loaded glyph by blending between two colors using the
+     * coverage. The colors can have any number of channels, 1, 3 and 4
+     * channels use specialized code paths.
+     * 
+     * <p>LCD glyphs blend the first 3 channels with the subpixel coverage
+     * in the specified order, other channels use the maximum coverage.</p>
+     * 
+     * <p>The blend table for the colors is cached, so repeated calls with
+     * the same colors don't allocate.</p>
+     * 
+     * @param dst the destination buffer - written starting at its position
+     * @param stride the offset between rows in bytes
+     * @param bgColor the color for 0 coverage
+     * @param fgColor the color for full coverage
+     * @param order the subpixel order of the display - used for LCD glyphs
+     * @param filter the FIR filter for LCD glyphs, or null for no filtering
+     * @return false if the glyph has no bitmap or an unsupported pixel mode
+     * @throws IOException if no glyph was loaded
+     */
+    public boolean copyGlyphToByteBufferColor(ByteBuffer dst, int stride, byte[] bgColor, byte[] fgColor,
+            SubpixelOrder order, FreeTypeLCDFilter filter) throws IOException {
         ensureGlyphLoaded();
 
-        if(bgColor.length != fgColor.length) {
-            throw new IllegalArgumentException("color arrays must have same length");
-        }
-        
-        short[] colors = new short[bgColor.length * 2];
-        for(int i=0 ; i<bgColor.length ; i++) {
-            int bg = bgColor[i] & 255;
-            colors[i*2+0] = (short)bg;
-            colors[i*2+1] = (short)((fgColor[i] & 255) - bg);
+        ColorBlendTable blend = blendTable;
+        if(blend == null || !blend.matches(bgColor, fgColor)) {
+            blend = new ColorBlendTable(bgColor, fgColor);
+            blendTable = blend;
         }
 
-        FT_Bitmap bitmap = face.glyph.bitmap;
-        if(bitmap.buffer == null) {
+        FT2Bitmap bitmap = getGlyphBitmap();
+        if(bitmap == null) {
             return false;
         }
-        return FT2Helper.copyGlyphToByteBuffer(bitmap, dst, stride, colors);
+        return FT2Helper.copyGlyphToByteBuffer(bitmap, dst, stride, blend, order == SubpixelOrder.BGR,
+                filter, getRowScratch(bitmap.width));
     }
 
     /**
@@ -355,37 +1013,508 @@ public class FreeTypeFont implements Closeable {
      * @see #isAvailable() 
      */
     public static FreeTypeFont create(ByteBuffer font) throws IOException {
-        FT2Helper.checkAvailable();
-        return new FreeTypeFont(FT_Init_FreeType(), font);
+        return createWithPrivateLibrary(font, 0);
     }
 
-    public static FreeTypeFont create(File font) throws IOException {
+    /**
+     * Loads the TrueType font in the specified {@code ByteBuffer} using a
+     * shared library.
+     * <p>
+     * NOTE: Do not modify the buffer until all {@code FreeTypeFont} instances are closed.
+     * </p>
+     * @param library the library used to create the face
+     * @param font the TrueType font to load
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if the library has been closed
+     */
+    public static FreeTypeFont create(FreeTypeLibrary library, ByteBuffer font) throws IOException {
+        return new FreeTypeFont(library, font, 0);
+    }
+
+    /**
+     * Loads the specified face of the font collection in the {@code ByteBuffer}
+     * using a shared library.
+     * <p>
+     * NOTE: Do not modify the buffer until all {@code FreeTypeFont} instances are closed.
+     * </p>
+     * @param library the library used to create the face
+     * @param font the font collection to load
+     * @param faceIndex the index of the face in the collection
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if the library has been closed
+     * @see #getNumFaces() 
+     */
+    public static FreeTypeFont create(FreeTypeLibrary library, ByteBuffer font, int faceIndex) throws IOException {
+        if(faceIndex < 0) {
+            throw new IllegalArgumentException("faceIndex");
+        }
+        return new FreeTypeFont(library, font, faceIndex);
+    }
+
+    /**
+     * Loads all faces of the font file. For font collections (TTC/OTC files)
+     * one instance is returned per face, all sharing the same memory mapped
+     * font data and library.
+     * 
+     * @param font the font file to load
+     * @return the FreeTypeFont instances in face index order
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     * @see #openFace(int) 
+     */
+    public static List<FreeTypeFont> createAll(File font) throws IOException {
         FT2Helper.checkAvailable();
-        RandomAccessFile raf = new RandomAccessFile(font, "r");
+        return createAll(mapFontFile(font));
+    }
+
+    /**
+     * Loads all faces of the font in the specified {@code ByteBuffer}.
+     * All faces share the same buffer and library.
+     * <p>
+     * NOTE: Do not modify the buffer until all {@code FreeTypeFont} instances are closed.
+     * </p>
+     * @param font the font or font collection to load
+     * @return the FreeTypeFont instances in face index order
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     */
+    public static List<FreeTypeFont> createAll(ByteBuffer font) throws IOException {
+        FreeTypeLibrary library = FreeTypeLibrary.create();
         try {
-            int size = (int)Math.min(MAX_FONT_FILE_SIZE, raf.length());
-            ByteBuffer fontBuffer = ByteBuffer.allocateDirect(size);
-            raf.getChannel().read(fontBuffer);
-            fontBuffer.flip();
-            return new FreeTypeFont(FT_Init_FreeType(), fontBuffer);
+            return createAll(library, font);
         } finally {
-            raf.close();
+            // the faces keep the library alive until they are closed
+            library.close();
+        }
+    }
+
+    /**
+     * Loads all faces of the font in the specified {@code ByteBuffer} using
+     * a shared library.
+     * <p>
+     * NOTE: Do not modify the buffer until all {@code FreeTypeFont} instances are closed.
+     * </p>
+     * @param library the library used to create the faces
+     * @param font the font or font collection to load
+     * @return the FreeTypeFont instances in face index order
+     * @throws IOException if the font could not be loaded, or if the library has been closed
+     */
+    public static List<FreeTypeFont> createAll(FreeTypeLibrary library, ByteBuffer font) throws IOException {
+        ArrayList<FreeTypeFont> fonts = new ArrayList<FreeTypeFont>();
+        boolean success = false;
+        try {
+            FreeTypeFont first = new FreeTypeFont(library, font, 0);
+            fonts.add(first);
+            for(int i=1,n=first.getNumFaces() ; i<n ; i++) {
+                fonts.add(first.openFace(i));
+            }
+            success = true;
+            return fonts;
+        } finally {
+            if(!success) {
+                for(int i=0,n=fonts.size() ; i<n ; i++) {
+                    fonts.get(i).close0Quietly();
+                }
+            }
         }
     }
 
+    /**
+     * Loads the font from the specified file.
+     * <p>
+     * Files up to {@link #MAX_FONT_FILE_SIZE} bytes are read into a direct
+     * {@code ByteBuffer}, larger files are memory mapped.
+     * </p>
+     * @param font the font file to load
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     * @see #createMapped(java.io.File) 
+     */
+    public static FreeTypeFont create(File font) throws IOException {
+        FT2Helper.checkAvailable();
+        return createWithPrivateLibrary(loadFontFile(font), 0);
+    }
+
+    /**
+     * Loads the font from the specified file using a shared library.
+     * 
+     * @param library the library used to create the face
+     * @param font the font file to load
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if the library has been closed
+     * @see #create(java.io.File) 
+     */
+    public static FreeTypeFont create(FreeTypeLibrary library, File font) throws IOException {
+        return new FreeTypeFont(library, loadFontFile(font), 0);
+    }
+
+    /**
+     * Loads the font by memory mapping the specified file.
+     * <p>
+     * The font data is not copied - pages are loaded by the OS on demand and
+     * shared with other processes which map the same file.
+     * </p>
+     * <p>
+     * NOTE: Do not modify the file until all {@code FreeTypeFont} instances are closed.
+     * </p>
+     * @param font the font file to load
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     */
+    public static FreeTypeFont createMapped(File font) throws IOException {
+        FT2Helper.checkAvailable();
+        return createWithPrivateLibrary(mapFontFile(font), 0);
+    }
+
+    /**
+     * Loads the font by memory mapping the specified file using a shared library.
+     * 
+     * @param library the library used to create the face
+     * @param font the font file to load
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if the library has been closed
+     * @see #createMapped(java.io.File) 
+     */
+    public static FreeTypeFont createMapped(FreeTypeLibrary library, File font) throws IOException {
+        return new FreeTypeFont(library, mapFontFile(font), 0);
+    }
+
+    /**
+     * Loads the font by memory mapping the content of the specified channel.
+     * The channel can be closed after this method returns.
+     * <p>
+     * NOTE: Do not modify the file until all {@code FreeTypeFont} instances are closed.
+     * </p>
+     * @param font the channel of the font file to load
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     * @see #createMapped(java.io.File) 
+     */
+    public static FreeTypeFont create(FileChannel font) throws IOException {
+        FT2Helper.checkAvailable();
+        return createWithPrivateLibrary(mapFontFile(font), 0);
+    }
+
+    /**
+     * Loads the font from the specified stream.
+     * <p>
+     * The whole stream is buffered in memory before it is copied into a
+     * direct {@code ByteBuffer}. Use {@link #create(de.matthiasmann.javafreetype.FreeTypeStreamSource) }
+     * for large fonts which are available from a random access source.
+     * </p>
+     * @param font the stream containing the font - the stream is not closed
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     */
     public static FreeTypeFont create(InputStream font) throws IOException {
         FT2Helper.checkAvailable();
-        ByteBuffer fontBuffer = inputStreamToByteBuffer(font);
-        return new FreeTypeFont(FT_Init_FreeType(), fontBuffer);
+        return createWithPrivateLibrary(inputStreamToByteBuffer(font), 0);
+    }
+
+    public static FreeTypeFont create(FreeTypeLibrary library, InputStream font) throws IOException {
+        return new FreeTypeFont(library, inputStreamToByteBuffer(font), 0);
+    }
+
+    /**
+     * Loads the font from the specified source. FreeType reads the font data
+     * on demand instead of keeping the whole file in memory.
+     * <p>
+     * The font takes ownership of the source - it is closed when the font is
+     * closed or when the font could not be loaded. Reading glyphs from a
+     * streamed font is slower than from a memory buffer, use a
+     * {@link FreeTypeGlyphCache} for text which is rendered repeatedly.
+     * </p>
+     * @param source the source of the font data
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     * @see FreeTypeStreamSource#create(java.io.File) 
+     */
+    public static FreeTypeFont create(FreeTypeStreamSource source) throws IOException {
+        FT2Stream stream = openStream(source);
+        FreeTypeLibrary library;
+        try {
+            library = FreeTypeLibrary.create();
+        } catch (IOException ex) {
+            stream.closeSource();
+            throw ex;
+        }
+        try {
+            return new FreeTypeFont(library, stream, 0);
+        } finally {
+            // the face keeps the library alive until it is closed
+            library.close();
+        }
+    }
+
+    /**
+     * Loads the font from the specified source using a shared library.
+     * 
+     * @param library the library used to create the face
+     * @param source the source of the font data
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if the library has been closed
+     * @see #create(de.matthiasmann.javafreetype.FreeTypeStreamSource) 
+     */
+    public static FreeTypeFont create(FreeTypeLibrary library, FreeTypeStreamSource source) throws IOException {
+        return new FreeTypeFont(library, openStream(source), 0);
+    }
+
+    /**
+     * Loads the font by reading the specified file on demand.
+     * The file stays open until the font is closed.
+     * 
+     * @param font the font file to load
+     * @return the FreeTypeFont instance
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     * @see #create(de.matthiasmann.javafreetype.FreeTypeStreamSource) 
+     */
+    public static FreeTypeFont createStreamed(File font) throws IOException {
+        return create(FreeTypeStreamSource.create(font));
+    }
+
+    /**
+     * Returns the library which owns this face.
+     * 
+     * <p>Fonts created without an explicit library use their own library
+     * which is closed together with the font.</p>
+     * 
+     * @return the library which owns this face.
+     * @throws IOException if the font has been closed
+     */
+    public FreeTypeLibrary getLibrary() throws IOException {
+        ensureOpen();
+        return library;
     }
 
     public static ByteBuffer toByteBuffer(InputStream is) throws IOException {
         return FT2Helper.inputStreamToByteBuffer(is);
     }
+
+    /**
+     * Memory maps the complete file as read only {@code ByteBuffer}.
+     * 
+     * @param channel the channel of the font file
+     * @return the mapped font file
+     * @throws IOException if the file could not be mapped
+     */
+    public static ByteBuffer mapFontFile(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if(size > Integer.MAX_VALUE) {
+            throw new IOException("font file too large: " + size);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    static ByteBuffer mapFontFile(File font) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(font, "r");
+        try {
+            return mapFontFile(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    static ByteBuffer loadFontFile(File font) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(font, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if(channel.size() > MAX_FONT_FILE_SIZE) {
+                return mapFontFile(channel);
+            } else {
+                return readFontFile(channel);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    static ByteBuffer readFontFile(FileChannel channel) throws IOException {
+        ByteBuffer fontBuffer = ByteBuffer.allocateDirect((int)channel.size());
+        while(fontBuffer.hasRemaining()) {
+            if(channel.read(fontBuffer) < 0) {
+                break;
+            }
+        }
+        fontBuffer.flip();
+        return fontBuffer;
+    }
     
+    /**
+     * Loads a glyph and copies its rendered bitmap into a new
+     * {@link FreeTypeGlyphBitmap}.
+     */
+    FreeTypeGlyphBitmap loadGlyphBitmap(int glyphIndex, int flags) throws IOException {
+        return copyGlyphBitmap(loadGlyph(glyphIndex, flags));
+    }
+
+    private FreeTypeGlyphBitmap copyGlyphBitmap(FreeTypeGlyphInfo info) {
+        FT2Bitmap bitmap = getGlyphBitmap();
+        int width = info.getWidth();
+        int height = info.getHeight();
+        if(bitmap != null && width > 0 && height > 0) {
+            if(info.isColor()) {
+                // keep the colors instead of reducing them to coverage
+                byte[] data = new byte[width * height * 4];
+                if(FT2Helper.copyGlyphToByteBufferRGBA(bitmap, ByteBuffer.wrap(data), width * 4, getRowScratch(width))) {
+                    return new FreeTypeGlyphBitmap(info, data);
+                }
+            } else {
+                byte[] data = new byte[width * height];
+                if(FT2Helper.copyGlyphToByteArray(bitmap, data, 0, width)) {
+                    return new FreeTypeGlyphBitmap(info, data);
+                }
+            }
+        }
+        return new FreeTypeGlyphBitmap(info, null);
+    }
+
+    /**
+     * Checks if the FreeType library can render signed distance fields.
+     * This requires FreeType 2.11 or newer built with the "sdf" and "bsdf"
+     * modules.
+     * 
+     * @return true if {@link #renderGlyphSDF(int, int) } uses FreeType
+     */
+    public static boolean isNativeSDFSupported() {
+        return FT2Helper.isNativeSDFAvailable();
+    }
+
+    /**
+     * Renders a glyph as signed distance field.
+     * 
+     * <p>The distance field uses 128 for the glyph edge, larger values inside
+     * and smaller values outside of the glyph. Values of 0 and 255 are
+     * {@code spread} pixels away from the edge. The bitmap is larger than
+     * the glyph by {@code spread} pixels on each side which is included in
+     * the glyph info offsets.</p>
+     * 
+     * <p>Distance fields can be scaled, so glyphs only need to be rendered at
+     * one (larger) size and can be drawn at any size.</p>
+     * 
+     * <p>FreeType's SDF renderer is used if available - otherwise, or when
+     * it can't render the glyph, the distance field is computed from the
+     * rendered coverage bitmap.</p>
+     * 
+     * @param glyphIndex the glyph index for this font
+     * @param spread the distance range in pixels, between 2 and 32
+     * @return the distance field
+     * @throws IOException if an error occured
+     * @see #isNativeSDFSupported() 
+     */
+    public FreeTypeGlyphBitmap renderGlyphSDF(int glyphIndex, int spread) throws IOException {
+        if(spread < 2 || spread > 32) {
+            throw new IllegalArgumentException("spread");
+        }
+        ensureOpen();
+        if(isNativeSDFSupported()) {
+            try {
+                synchronized(library) {
+                    // the spread is a library wide property
+                    library.setSDFSpread(spread);
+                    glyphLoaded = false;
+                    checkReturnCode(FT_Load_Glyph(face.getPointer(), glyphIndex, FT_LOAD_DEFAULT));
+                    checkReturnCode(INSTANCE.FT_Render_Glyph(face.glyph.getPointer(), FT_RENDER_MODE_SDF));
+                }
+                return copyGlyphBitmap(makeGlyphInfo());
+            } catch (FreeTypeException ex) {
+                // e.g. bitmap only glyphs - use the coverage based fallback
+                getLogger().log(Level.FINE, "FreeType can't render SDF glyph", ex);
+            }
+        }
+
+        FreeTypeGlyphBitmap coverage = loadGlyphBitmap(glyphIndex, FT_LOAD_RENDER);
+        FreeTypeGlyphInfo info = coverage.info;
+        if(coverage.data == null) {
+            return coverage;
+        }
+        if(info.isColor()) {
+            // RGBA data is not a coverage bitmap
+            return new FreeTypeGlyphBitmap(info, null);
+        }
+        byte[] data = SignedDistanceField.generate(coverage.data, info.width, info.height, spread);
+        return new FreeTypeGlyphBitmap(new FreeTypeGlyphInfo(
+                info.width + 2*spread, info.height + 2*spread,
+                info.offsetX - spread, info.offsetY + spread,
+                info.advanceX, info.advanceY), data);
+    }
+
+    /**
+     * Returns the object identifying the font data of this face.
+     * Fonts which share the same font data and face index render identical glyphs.
+     * The key does not reference the font data.
+     */
+    final Object getFaceKey() {
+        return dataKey;
+    }
+
+    private static FT2Stream openStream(FreeTypeStreamSource source) throws IOException {
+        source.acquire();
+        boolean success = false;
+        try {
+            FT2Stream stream = new FT2Stream(source);
+            success = true;
+            return stream;
+        } finally {
+            if(!success) {
+                source.release();
+            }
+        }
+    }
+
+    static FreeTypeFont createWithPrivateLibrary(ByteBuffer font, int faceIndex) throws IOException {
+        FreeTypeLibrary library = FreeTypeLibrary.create();
+        try {
+            return new FreeTypeFont(library, font, faceIndex);
+        } finally {
+            // the face keeps the library alive until it is closed
+            library.close();
+        }
+    }
+
+    final CharMapTable ensureCharMap() throws IOException {
+        ensureOpen();
+        if(charMap == null) {
+            charMap = new CharMapTable(new FreeTypeCodePointIterator(this));
+        }
+        return charMap;
+    }
+
+    /**
+     * Loads a glyph and returns the native glyph slot which is valid until
+     * the next glyph is loaded. The glyph is not visible to the copy methods.
+     */
+    final Pointer loadGlyphSlot(int glyphIndex, int flags) throws IOException {
+        ensureOpen();
+        glyphLoaded = false;
+        checkReturnCode(FT_Load_Glyph(face.getPointer(), glyphIndex, flags));
+        return face.glyph.getPointer();
+    }
+
+    final byte[] getRowScratch(int size) {
+        byte[] scratch = rowScratch;
+        if(scratch == null || scratch.length < size) {
+            scratch = new byte[Math.max(size, 256)];
+            rowScratch = scratch;
+        }
+        return scratch;
+    }
+
     private FreeTypeGlyphInfo makeGlyphInfo() {
-        face.glyph.read();
-        return new FreeTypeGlyphInfo(face.glyph);
+        return new FreeTypeGlyphInfo(face.glyph.getPointer());
+    }
+
+    /**
+     * Reads the bitmap of the loaded glyph.
+     * @return the bitmap or null if the glyph has no bitmap buffer
+     */
+    final FT2Bitmap getGlyphBitmap() {
+        FT2Bitmap bitmap = glyphBitmap;
+        if(bitmap == null) {
+            bitmap = new FT2Bitmap();
+            glyphBitmap = bitmap;
+        }
+        if(!FT2GlyphSlot.readBitmap(face.glyph.getPointer(), bitmap)) {
+            return null;
+        }
+        return bitmap;
     }
 
     private int roundMaybeScaleY(NativeLong value) {
@@ -418,35 +1547,77 @@ public class FreeTypeFont implements Closeable {
 
     final void ensureGlyphLoaded() throws IOException {
         ensureOpen();
-        if(face.glyph == null) {
-            throw new IllegalStateException("No glyph loaded");
+        if(face.glyph == null || !glyphLoaded) {
+            // measuring, outline and distance field calls reuse the glyph slot
+            throw new IllegalStateException("No glyph loaded - or it was replaced by a measuring call");
+        }
+    }
+
+    private void close0Quietly() {
+        try {
+            close0();
+        } catch (IOException ex) {
+            getLogger().log(Level.WARNING, "Can't close face", ex);
         }
     }
 
     private void close0() throws IOException {
         if(library != null) {
-            int err = INSTANCE.FT_Done_FreeType(library);
+            FaceResource r = resource;
             library = null;
             face = null;
             fontBuffer = null;
+            stream = null;
+            resource = null;
+            charMap = null;
             initialSize = null;
             activeSize = null;
-            checkReturnCode(err);
+            r.clean();
         }
     }
 
-    @Override
-    @SuppressWarnings("FinalizeDeclaration")
-    protected void finalize() throws Throwable {
-        super.finalize();
-        close0();
-    }
-    
     public final class Size {
         final Pointer size;
+        final SizeResource resource;
+        KerningTable[] kerning;
+        AdvanceCache[] advances;
+        boolean closed;
 
-        Size(Pointer size) {
+        Size(Pointer size, boolean owned) {
             this.size = size;
+            this.resource = owned ? new SizeResource(this, FreeTypeFont.this.resource, size) : null;
+        }
+
+        /**
+         * Releases this size. If it is the active size then the initial size
+         * of the font is activated. Does nothing if the font has been closed.
+         * 
+         * @throws IOException if an error occured
+         * @throws IllegalStateException if this is the initial size of the font
+         * @see #createNewSize() 
+         */
+        public void close() throws IOException {
+            if(resource == null) {
+                throw new IllegalStateException("The initial size can't be closed");
+            }
+            if(closed || library == null) {
+                return;
+            }
+            if(activeSize == this) {
+                setActiveSize(initialSize);
+            }
+            closed = true;
+            invalidateMetrics();
+            FreeTypeFont.this.resource.doneSize(resource);
+            FreeTypeFont.this.resource.doneUnusedSizes();
+        }
+
+        /**
+         * Called when the scale of this size has changed
+         */
+        void invalidateMetrics() {
+            kerning = null;
+            advances = null;
         }
         
         FreeTypeFont getFTF() {
@@ -454,6 +1625,132 @@ public class FreeTypeFont implements Closeable {
         }
     }
     
+    /**
+     * Releases the native face. Holds the font data and the stream until the
+     * face has been released, but must not reference the font itself.
+     */
+    static final class FaceResource extends FT2Cleaner.Resource {
+        private final FreeTypeLibrary library;
+        private final Pointer face;
+        private ByteBuffer fontBuffer;
+        private FT2Stream stream;
+        /** font data owned by a registry - released together with the face */
+        volatile FreeTypeFontRegistry.FontData registryData;
+        /** registered sizes created with createNewSize */
+        private final ArrayList<SizeResource> sizes;
+        /** sizes which have been collected - released by the thread using the font */
+        private final ArrayList<Pointer> unusedSizes;
+        private boolean released;
+
+        FaceResource(FreeTypeFont owner, FreeTypeLibrary library, Pointer face, ByteBuffer fontBuffer, FT2Stream stream) {
+            super(owner, true);
+            this.library = library;
+            this.face = face;
+            this.fontBuffer = fontBuffer;
+            this.stream = stream;
+            this.sizes = new ArrayList<SizeResource>();
+            this.unusedSizes = new ArrayList<Pointer>();
+        }
+
+        @Override
+        void release() throws IOException {
+            synchronized(this) {
+                // FT_Done_Face releases all sizes of the face
+                released = true;
+                for(int i=0,n=sizes.size() ; i<n ; i++) {
+                    sizes.get(i).cancel();
+                }
+                sizes.clear();
+                unusedSizes.clear();
+            }
+            FreeTypeFontRegistry.FontData data = registryData;
+            registryData = null;
+            try {
+                // FT_Done_Face calls back into the stream to close it
+                checkReturnCode(library.doneFace(face));
+            } finally {
+                fontBuffer = null;
+                stream = null;
+                if(data != null) {
+                    data.release();
+                }
+            }
+        }
+
+        @Override
+        String getLeakDescription() {
+            return "FreeTypeFont";
+        }
+
+        synchronized void addSize(SizeResource size) {
+            sizes.add(size);
+        }
+
+        /**
+         * Called by the cleaner thread. FT_Done_Size must not run concurrently
+         * with the thread using the font, so the size is only queued.
+         */
+        synchronized void sizeCollected(SizeResource size) {
+            if(!released) {
+                sizes.remove(size);
+                unusedSizes.add(size.size);
+            }
+        }
+
+        void doneSize(SizeResource size) throws IOException {
+            if(size.cancel()) {
+                synchronized(this) {
+                    sizes.remove(size);
+                }
+                checkReturnCode(INSTANCE.FT_Done_Size(size.size));
+            }
+        }
+
+        void doneUnusedSizes() throws IOException {
+            Pointer[] unused;
+            synchronized(this) {
+                if(unusedSizes.isEmpty()) {
+                    return;
+                }
+                unused = unusedSizes.toArray(new Pointer[unusedSizes.size()]);
+                unusedSizes.clear();
+            }
+            int err = 0;
+            for(Pointer size : unused) {
+                int e = INSTANCE.FT_Done_Size(size);
+                if(err == 0) {
+                    err = e;
+                }
+            }
+            checkReturnCode(err);
+        }
+    }
+
+    /**
+     * Tracks a size created with createNewSize.
+     */
+    static final class SizeResource extends FT2Cleaner.Resource {
+        private final FaceResource face;
+        final Pointer size;
+
+        SizeResource(Size owner, FaceResource face, Pointer size) {
+            super(owner, false);
+            this.face = face;
+            this.size = size;
+            face.addSize(this);
+        }
+
+        @Override
+        void release() {
+            face.sizeCollected(this);
+        }
+
+        @Override
+        String getLeakDescription() {
+            return null;
+        }
+    }
+
     public enum LoadTarget {
         NORMAL(FT2Library.FT_LOAD_TARGET_NORMAL),
         LIGHT(FT2Library.FT_LOAD_TARGET_LIGHT),
@@ -466,4 +1763,13 @@ public class FreeTypeFont implements Closeable {
             this.target = target;
         }
     }
+
+    /**
+     * The order of the subpixels of a LCD display from left to right (or top
+     * to bottom for vertical LCD displays).
+     */
+    public enum SubpixelOrder {
+        RGB,
+        BGR
+    }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * A pool of {@link FreeTypeFont} instances which all share the same font data.
+ * 
+ * <p>Each font in the pool has its own FreeType library and face, so glyphs
+ * can be loaded and rendered from different threads at the same time. A thread
+ * acquires a font, uses it exclusively and then releases it back to the pool:</p>
+ * <pre>
+ * FreeTypeFont font = pool.acquire();
+ * try {
+ *     ...
+ * } finally {
+ *     pool.release(font);
+ * }
+ * </pre>
+ * 
+ * <p>All fonts handed out by the pool are set to the size configured with
+ * {@link #setCharSize(float, float, int, int) } or {@link #setPixelSize(int, int) }.</p>
+ * 
+ * <p>NOTE: This class is thread safe.</p>
+ *
+ * @author Matthias Mann
+ */
+public class FreeTypeFontPool implements Closeable {
+
+    private final ByteBuffer fontBuffer;
+    private final Semaphore available;
+    private final ConcurrentLinkedQueue<PooledFont> idle;
+    private final ConcurrentHashMap<FreeTypeFont, PooledFont> fonts;
+    private volatile SizeConfig sizeConfig;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new font pool. Fonts are created on demand.
+     * <p>
+     * NOTE: Do not modify the buffer until the pool is closed.
+     * </p>
+     * 
+     * @param font the TrueType font to load
+     * @param maxFonts the maximum number of fonts - usually the number of threads
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     */
+    public FreeTypeFontPool(ByteBuffer font, int maxFonts) throws IOException {
+        if(maxFonts <= 0) {
+            throw new IllegalArgumentException("maxFonts");
+        }
+        this.fontBuffer = font;
+        this.available = new Semaphore(maxFonts);
+        this.idle = new ConcurrentLinkedQueue<PooledFont>();
+        this.fonts = new ConcurrentHashMap<FreeTypeFont, PooledFont>();
+
+        // validate the font now and keep it for the first acquire
+        PooledFont pf = new PooledFont(FreeTypeFont.create(fontBuffer));
+        fonts.put(pf.font, pf);
+        idle.add(pf);
+    }
+
+    /**
+     * Creates a new font pool with one font per available processor.
+     * 
+     * @param font the TrueType font to load
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     * @see #FreeTypeFontPool(java.nio.ByteBuffer, int) 
+     */
+    public FreeTypeFontPool(ByteBuffer font) throws IOException {
+        this(font, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Sets the char size for all fonts of this pool.
+     * Fonts which are currently acquired are changed when they are acquired again.
+     * 
+     * @see FreeTypeFont#setCharSize(float, float, int, int) 
+     */
+    public void setCharSize(float width, float height, int horizontalResolution, int verticalResolution) {
+        sizeConfig = new SizeConfig(width, height, horizontalResolution, verticalResolution, false);
+    }
+
+    /**
+     * Sets the pixel size for all fonts of this pool.
+     * Fonts which are currently acquired are changed when they are acquired again.
+     * 
+     * @see FreeTypeFont#setPixelSize(int, int) 
+     */
+    public void setPixelSize(int width, int height) {
+        sizeConfig = new SizeConfig(width, height, 0, 0, true);
+    }
+
+    /**
+     * Acquires a font for exclusive use by the calling thread. Blocks
+     * until a font is available.
+     * 
+     * @return the font - must be released with {@link #release(de.matthiasmann.javafreetype.FreeTypeFont) }
+     * @throws IOException if the pool has been closed or a font could not be created
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public FreeTypeFont acquire() throws IOException, InterruptedException {
+        ensureOpen();
+        available.acquire();
+        try {
+            return acquire0();
+        } catch(IOException ex) {
+            available.release();
+            throw ex;
+        } catch(RuntimeException ex) {
+            available.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Acquires a font if one is available without blocking.
+     * 
+     * @return the font or null if all fonts are in use
+     * @throws IOException if the pool has been closed or a font could not be created
+     */
+    public FreeTypeFont tryAcquire() throws IOException {
+        ensureOpen();
+        if(!available.tryAcquire()) {
+            return null;
+        }
+        try {
+            return acquire0();
+        } catch(IOException ex) {
+            available.release();
+            throw ex;
+        } catch(RuntimeException ex) {
+            available.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Releases a font back into the pool.
+     * 
+     * @param font the font returned by {@link #acquire() }
+     */
+    public void release(FreeTypeFont font) {
+        PooledFont pf = fonts.get(font);
+        // only one of several concurrent releases of the same font may succeed
+        if(pf == null || !pf.inUse.compareAndSet(true, false)) {
+            throw new IllegalArgumentException("font was not acquired from this pool");
+        }
+        if(closed) {
+            closeFont(pf);
+        } else {
+            returnToIdle(pf);
+        }
+        available.release();
+    }
+
+    /**
+     * Returns the number of fonts created by this pool.
+     * @return the number of fonts created by this pool
+     */
+    public int getNumFonts() {
+        return fonts.size();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the pool. Idle fonts are closed immediately, fonts which are in
+     * use are closed when they are released.
+     */
+    public void close() {
+        closed = true;
+        closeIdleFonts();
+    }
+
+    private void closeIdleFonts() {
+        PooledFont pf;
+        while((pf = idle.poll()) != null) {
+            closeFont(pf);
+        }
+    }
+
+    /**
+     * Adds a font to the idle queue. If the pool was closed concurrently
+     * then close() may have drained the queue before the font was added.
+     */
+    private void returnToIdle(PooledFont pf) {
+        idle.add(pf);
+        if(closed) {
+            closeIdleFonts();
+        }
+    }
+
+    private FreeTypeFont acquire0() throws IOException {
+        PooledFont pf = idle.poll();
+        if(pf == null) {
+            pf = new PooledFont(FreeTypeFont.create(fontBuffer));
+            fonts.put(pf.font, pf);
+        }
+        try {
+            pf.applySize(sizeConfig);
+        } catch(IOException ex) {
+            returnToIdle(pf);
+            throw ex;
+        }
+        if(!pf.inUse.compareAndSet(false, true)) {
+            throw new IllegalStateException("pooled font is already in use");
+        }
+        if(closed) {
+            // pool was closed concurrently
+            pf.inUse.set(false);
+            closeFont(pf);
+            throw new ClosedChannelException();
+        }
+        return pf.font;
+    }
+
+    private void closeFont(PooledFont pf) {
+        fonts.remove(pf.font);
+        try {
+            pf.font.close();
+        } catch(IOException ex) {
+            FT2Helper.getLogger().log(Level.WARNING, "Can't close pooled font", ex);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if(closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    static final class PooledFont {
+        final FreeTypeFont font;
+        SizeConfig appliedConfig;
+        int appliedSizeSerial;
+        final AtomicBoolean inUse = new AtomicBoolean();
+
+        PooledFont(FreeTypeFont font) {
+            this.font = font;
+            this.appliedSizeSerial = font.sizeSerial;
+        }
+
+        void applySize(SizeConfig config) throws IOException {
+            if(config != null && (config != appliedConfig ||
+                    font.sizeSerial != appliedSizeSerial ||
+                    font.activeSize != font.initialSize)) {
+                if(font.activeSize != font.initialSize) {
+                    font.setActiveSize(font.initialSize);
+                }
+                config.apply(font);
+                appliedConfig = config;
+                appliedSizeSerial = font.sizeSerial;
+            }
+        }
+    }
+
+    static final class SizeConfig {
+        final float width;
+        final float height;
+        final int horizontalResolution;
+        final int verticalResolution;
+        final boolean pixelSize;
+
+        SizeConfig(float width, float height, int horizontalResolution, int verticalResolution, boolean pixelSize) {
+            this.width = width;
+            this.height = height;
+            this.horizontalResolution = horizontalResolution;
+            this.verticalResolution = verticalResolution;
+            this.pixelSize = pixelSize;
+        }
+
+        void apply(FreeTypeFont font) throws IOException {
+            if(pixelSize) {
+                font.setPixelSize((int)width, (int)height);
+            } else {
+                font.setCharSize(width, height, horizontalResolution, verticalResolution);
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+/**
+ * A registry which shares the font data of fonts loaded from the same file.
+ * 
+ * <p>Font data is identified by the canonical path of the file and a hash of
+ * its content. Opening the same file again - or another file with identical
+ * content - reuses the already loaded {@code ByteBuffer} instead of reading
+ * another copy. The font data is reference counted by the faces using it and
+ * released as soon as the last face is closed, so the memory footprint
+ * depends on the number of distinct fonts and not on the number of open
+ * faces.</p>
+ * 
+ * <p>A file which has been modified since it was loaded (different size or
+ * modification time) is loaded again. Faces which are still using the old
+ * data are not affected.</p>
+ * 
+ * <p>NOTE: This class is thread safe. Each returned {@link FreeTypeFont} must
+ * still only be used by one thread at a time.</p>
+ *
+ * @author Matthias Mann
+ */
+public class FreeTypeFontRegistry {
+
+    private static FreeTypeFontRegistry sharedRegistry;
+
+    private final FreeTypeLibrary library;
+    private final HashMap<String, PathEntry> byPath;
+    private final HashMap<ContentKey, ArrayList<FontData>> byContent;
+    private long totalBytes;
+
+    /**
+     * Creates a new registry. Each font uses its own FreeType library, so
+     * different fonts can be used concurrently with any FreeType version.
+     */
+    public FreeTypeFontRegistry() {
+        this(null);
+    }
+
+    /**
+     * Creates a new registry which creates all faces using the specified library.
+     * 
+     * @param library the library used to create the faces, or null to use
+     *                a private library for each font.
+     * @see FreeTypeLibrary
+     */
+    public FreeTypeFontRegistry(FreeTypeLibrary library) {
+        this.library = library;
+        this.byPath = new HashMap<String, PathEntry>();
+        this.byContent = new HashMap<ContentKey, ArrayList<FontData>>();
+    }
+
+    /**
+     * Returns the process wide registry. Fonts are created using private libraries.
+     * @return the process wide registry
+     */
+    public static synchronized FreeTypeFontRegistry getShared() {
+        if(sharedRegistry == null) {
+            sharedRegistry = new FreeTypeFontRegistry();
+        }
+        return sharedRegistry;
+    }
+
+    /**
+     * Opens the first face of the specified font file.
+     * 
+     * @param file the font file
+     * @return the FreeTypeFont instance - must be closed when no longer needed
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     * @see #open(java.io.File, int) 
+     */
+    public FreeTypeFont open(File file) throws IOException {
+        return open(file, 0);
+    }
+
+    /**
+     * Opens a face of the specified font file. The font data is shared with
+     * all other open faces of this registry using the same file or content.
+     * 
+     * @param file the font file
+     * @param faceIndex the index of the face in a font collection
+     * @return the FreeTypeFont instance - must be closed when no longer needed
+     * @throws IOException if the font could not be loaded, or if FreeType2 is not available
+     * @see FreeTypeFont#getNumFaces() 
+     */
+    public FreeTypeFont open(File file, int faceIndex) throws IOException {
+        if(faceIndex < 0) {
+            throw new IllegalArgumentException("faceIndex");
+        }
+        FT2Helper.checkAvailable();
+        FontData data = acquire(file);
+        boolean success = false;
+        try {
+            FreeTypeFont font = (library != null)
+                    ? FreeTypeFont.create(library, data.buffer, faceIndex)
+                    : FreeTypeFont.createWithPrivateLibrary(data.buffer, faceIndex);
+            font.resource.registryData = data;
+            success = true;
+            return font;
+        } finally {
+            if(!success) {
+                data.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct font files which are currently loaded.
+     * @return the number of distinct font files
+     */
+    public synchronized int getNumFontData() {
+        int count = 0;
+        for(ArrayList<FontData> chain : byContent.values()) {
+            count += chain.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total size of all currently loaded font data.
+     * @return the total size in bytes
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private FontData acquire(File file) throws IOException {
+        final String path = file.getCanonicalPath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+
+        synchronized(this) {
+            PathEntry pe = byPath.get(path);
+            if(pe != null && pe.length == length && pe.lastModified == lastModified) {
+                pe.data.refCount++;
+                return pe.data;
+            }
+        }
+
+        // load and hash outside of the lock - other fonts can be opened meanwhile
+        ByteBuffer buffer = FreeTypeFont.loadFontFile(file);
+        ContentKey key = new ContentKey(buffer.remaining(), computeHash(buffer));
+
+        // entries with the same key are compared outside of the lock too - they
+        // are referenced while comparing so they can't be freed meanwhile
+        ArrayList<FontData> compared = new ArrayList<FontData>();
+        for(;;) {
+            ArrayList<FontData> candidates = new ArrayList<FontData>();
+            synchronized(this) {
+                ArrayList<FontData> chain = byContent.get(key);
+                if(chain != null) {
+                    for(int i=0,n=chain.size() ; i<n ; i++) {
+                        FontData data = chain.get(i);
+                        if(!compared.contains(data)) {
+                            data.refCount++;
+                            candidates.add(data);
+                        }
+                    }
+                }
+                if(candidates.isEmpty()) {
+                    // new content or a hash collision - chain it to the other entries
+                    if(chain == null) {
+                        chain = new ArrayList<FontData>(1);
+                        byContent.put(key, chain);
+                    }
+                    FontData data = new FontData(key, buffer);
+                    chain.add(data);
+                    totalBytes += key.length;
+                    data.refCount++;
+                    byPath.put(path, new PathEntry(length, lastModified, data));
+                    return data;
+                }
+            }
+
+            FontData match = null;
+            for(int i=0,n=candidates.size() ; i<n ; i++) {
+                FontData data = candidates.get(i);
+                if(match == null && data.buffer.equals(buffer)) {
+                    match = data;
+                } else {
+                    data.release();
+                }
+            }
+            if(match != null) {
+                // same content already loaded from another path or by another thread
+                FT2Helper.freeDirectBuffer(buffer);
+                synchronized(this) {
+                    byPath.put(path, new PathEntry(length, lastModified, match));
+                }
+                return match;
+            }
+            // check entries which were added while comparing
+            compared.addAll(candidates);
+        }
+    }
+
+    synchronized void release(FontData data) {
+        if(--data.refCount > 0) {
+            return;
+        }
+        ArrayList<FontData> chain = byContent.get(data.key);
+        if(chain != null && chain.remove(data) && chain.isEmpty()) {
+            byContent.remove(data.key);
+        }
+        // remove all paths which point to this data
+        Iterator<PathEntry> iter = byPath.values().iterator();
+        while(iter.hasNext()) {
+            if(iter.next().data == data) {
+                iter.remove();
+            }
+        }
+        totalBytes -= data.key.length;
+        // no face is using the buffer anymore
+        FT2Helper.freeDirectBuffer(data.buffer);
+    }
+
+    private static int computeHash(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        ByteBuffer src = buffer.duplicate();
+        byte[] tmp = new byte[65536];
+        while(src.hasRemaining()) {
+            int len = Math.min(tmp.length, src.remaining());
+            src.get(tmp, 0, len);
+            crc.update(tmp, 0, len);
+        }
+        return (int)crc.getValue();
+    }
+
+    final class FontData {
+        final ContentKey key;
+        final ByteBuffer buffer;
+        int refCount;
+
+        FontData(ContentKey key, ByteBuffer buffer) {
+            this.key = key;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Adds a reference for another face using this data.
+         */
+        FontData acquire() {
+            synchronized(FreeTypeFontRegistry.this) {
+                refCount++;
+            }
+            return this;
+        }
+
+        void release() {
+            FreeTypeFontRegistry.this.release(this);
+        }
+    }
+
+    static final class PathEntry {
+        final long length;
+        final long lastModified;
+        final FontData data;
+
+        PathEntry(long length, long lastModified, FontData data) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+    }
+
+    static final class ContentKey {
+        final int length;
+        final int hash;
+
+        ContentKey(int length, int hash) {
+            this.length = length;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof ContentKey)) {
+                return false;
+            }
+            final ContentKey other = (ContentKey)obj;
+            return this.length == other.length && this.hash == other.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash * 31 + length;
+        }
+    }
+}
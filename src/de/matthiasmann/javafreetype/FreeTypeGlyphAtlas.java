@@ -0,0 +1,620 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+
+/**
+ * Packs rendered glyphs into one or more fixed size 8 bit coverage pages.
+ * 
+ * <p>Each page is a direct {@code ByteBuffer} with a stride equal to the page
+ * width which can be uploaded as an alpha/luminance texture. Atlases created
+ * with a {@link FreeTypeFont.SubpixelOrder} use packed RGB pages with 3 bytes
+ * per pixel instead, which keep the subpixel coverage of LCD glyphs and can
+ * be uploaded as RGB texture. Glyphs are placed
+ * using a skyline bottom-left allocator. New pages are created when a glyph
+ * doesn't fit into any existing page.</p>
+ * 
+ * <p>All glyphs of an atlas should be rendered from the same font at the same
+ * size - glyphs are identified only by their glyph index.</p>
+ * 
+ * <p>Color glyphs can't be stored in coverage or RGB pages. They get a region
+ * which is left empty.</p>
+ * 
+ * <p>NOTE: This class is <b>NOT</b> thread safe.</p>
+ *
+ * @author Matthias Mann
+ */
+public class FreeTypeGlyphAtlas {
+
+    private final int pageWidth;
+    private final int pageHeight;
+    private final int padding;
+    private final int loadFlags;
+    private final int bytesPerPixel;
+    private final FreeTypeFont.SubpixelOrder order;
+    private final FreeTypeLCDFilter filter;
+    private final ArrayList<Page> pages;
+    private final HashMap<Integer, Region> regions;
+    private byte[] tmp;
+
+    /**
+     * Creates a new glyph atlas which renders glyphs using FT_LOAD_TARGET_NORMAL.
+     * 
+     * @param pageWidth the width of each page in pixels
+     * @param pageHeight the height of each page in pixels
+     * @param padding the number of empty pixels around each glyph
+     */
+    public FreeTypeGlyphAtlas(int pageWidth, int pageHeight, int padding) {
+        this(pageWidth, pageHeight, padding, FreeTypeFont.LoadTarget.NORMAL);
+    }
+
+    /**
+     * Creates a new glyph atlas.
+     * 
+     * @param pageWidth the width of each page in pixels
+     * @param pageHeight the height of each page in pixels
+     * @param padding the number of empty pixels around each glyph
+     * @param target the load target used to render glyphs
+     */
+    public FreeTypeGlyphAtlas(int pageWidth, int pageHeight, int padding, FreeTypeFont.LoadTarget target) {
+        this(pageWidth, pageHeight, padding, target, 1, null, null);
+    }
+
+    /**
+     * Creates a new glyph atlas with packed RGB pages.
+     * 
+     * @param pageWidth the width of each page in pixels
+     * @param pageHeight the height of each page in pixels
+     * @param padding the number of empty pixels around each glyph
+     * @param target the load target used to render glyphs - usually LCD or LCD_V
+     * @param order the subpixel order of the display
+     * @param filter the FIR filter for LCD glyphs, or null for no filtering
+     */
+    public FreeTypeGlyphAtlas(int pageWidth, int pageHeight, int padding, FreeTypeFont.LoadTarget target,
+            FreeTypeFont.SubpixelOrder order, FreeTypeLCDFilter filter) {
+        this(pageWidth, pageHeight, padding, target, 3, order, filter);
+        if(order == null) {
+            throw new NullPointerException("order");
+        }
+    }
+
+    private FreeTypeGlyphAtlas(int pageWidth, int pageHeight, int padding, FreeTypeFont.LoadTarget target,
+            int bytesPerPixel, FreeTypeFont.SubpixelOrder order, FreeTypeLCDFilter filter) {
+        if(pageWidth <= 0 || pageHeight <= 0) {
+            throw new IllegalArgumentException("page size");
+        }
+        if(padding < 0) {
+            throw new IllegalArgumentException("padding");
+        }
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.padding = padding;
+        this.loadFlags = FT_LOAD_RENDER | target.target;
+        this.bytesPerPixel = bytesPerPixel;
+        this.order = order;
+        this.filter = filter;
+        this.pages = new ArrayList<Page>();
+        this.regions = new HashMap<Integer, Region>();
+    }
+
+    public int getPageWidth() {
+        return pageWidth;
+    }
+
+    public int getPageHeight() {
+        return pageHeight;
+    }
+
+    public int getPadding() {
+        return padding;
+    }
+
+    /**
+     * Returns true if the pages use packed RGB with 3 bytes per pixel.
+     * @return true if the pages use packed RGB
+     */
+    public boolean isRGB() {
+        return bytesPerPixel == 3;
+    }
+
+    /**
+     * Returns the number of bytes per pixel of the pages.
+     * @return 1 for coverage pages or 3 for RGB pages
+     */
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    public int getNumPages() {
+        return pages.size();
+    }
+
+    public Page getPage(int index) {
+        return pages.get(index);
+    }
+
+    /**
+     * Returns the number of glyphs in this atlas.
+     * @return the number of glyphs in this atlas
+     */
+    public int getNumGlyphs() {
+        return regions.size();
+    }
+
+    /**
+     * Returns the region of a glyph which has been added to this atlas.
+     * 
+     * @param glyphIndex the glyph index
+     * @return the region or null if the glyph has not been added
+     */
+    public Region getGlyph(int glyphIndex) {
+        return regions.get(glyphIndex);
+    }
+
+    /**
+     * Adds the glyph for the specified code point if it is not yet part of this atlas.
+     * 
+     * @param font the font at the size to use
+     * @param codepoint the unicode code point
+     * @return the region of the glyph
+     * @throws IOException if an error occured
+     * @see #addGlyph(de.matthiasmann.javafreetype.FreeTypeFont, int) 
+     */
+    public Region addCodePoint(FreeTypeFont font, int codepoint) throws IOException {
+        return addGlyph(font, font.getGlyphForCodePoint(codepoint));
+    }
+
+    /**
+     * Renders and adds a glyph if it is not yet part of this atlas.
+     * 
+     * <p>NOTE: This method may change the glyph loaded in the font.</p>
+     * 
+     * @param font the font at the size to use
+     * @param glyphIndex the glyph index for this font
+     * @return the region of the glyph
+     * @throws IOException if an error occured
+     * @throws IllegalArgumentException if the glyph is larger than a page
+     */
+    public Region addGlyph(FreeTypeFont font, int glyphIndex) throws IOException {
+        Region region = regions.get(glyphIndex);
+        if(region == null) {
+            FreeTypeGlyphInfo info = font.loadGlyph(glyphIndex, loadFlags);
+            region = allocate(glyphIndex, info);
+            if(region.page != null) {
+                copyLoadedGlyph(font, region);
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Adds a glyph bitmap if the glyph is not yet part of this atlas.
+     * This can be used to fill the atlas from a {@link FreeTypeGlyphCache}.
+     * 
+     * @param glyphIndex the glyph index of the bitmap
+     * @param bitmap the rendered glyph
+     * @return the region of the glyph
+     * @throws IllegalArgumentException if the glyph is larger than a page
+     */
+    public Region addGlyph(int glyphIndex, FreeTypeGlyphBitmap bitmap) {
+        Region region = regions.get(glyphIndex);
+        if(region == null) {
+            region = allocate(glyphIndex, bitmap.info);
+            if(region.page != null) {
+                ByteBuffer dst = region.page.buffer;
+                dst.clear().position((region.y * pageWidth + region.x) * bytesPerPixel);
+                boolean ok;
+                if(bitmap.info.isColor()) {
+                    ok = false;
+                } else if(order != null) {
+                    ok = bitmap.copyToByteBufferRGB(dst, pageWidth * 3, order, filter);
+                } else {
+                    ok = bitmap.copyToByteBuffer(dst, pageWidth);
+                }
+                if(!ok) {
+                    clearRegion(region);
+                }
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Returns the fraction of the allocated page area which is used by glyphs
+     * including their padding.
+     * 
+     * @return the occupancy between 0 and 1, or 0 if no page was allocated
+     */
+    public float getOccupancy() {
+        if(pages.isEmpty()) {
+            return 0;
+        }
+        long used = 0;
+        for(int i=0,n=pages.size() ; i<n ; i++) {
+            used += pages.get(i).usedArea;
+        }
+        return (float)used / ((long)pageWidth * pageHeight * pages.size());
+    }
+
+    /**
+     * Removes all glyphs and pages.
+     */
+    public void clear() {
+        pages.clear();
+        regions.clear();
+    }
+
+    private Region allocate(int glyphIndex, FreeTypeGlyphInfo info) {
+        // RGB pages store LCD glyphs with one pixel per subpixel triple
+        final int width = (order != null) ? info.getPixelWidth() : info.width;
+        final int height = (order != null) ? info.getPixelHeight() : info.height;
+        Region region;
+        if(width <= 0 || height <= 0) {
+            region = new Region(info, null, 0, 0, 0, 0);
+        } else {
+            final int w = width + 2*padding;
+            final int h = height + 2*padding;
+            if(w > pageWidth || h > pageHeight) {
+                throw new IllegalArgumentException("glyph too large for atlas page");
+            }
+
+            Page page = null;
+            long pos = -1;
+            for(int i=0,n=pages.size() ; i<n && pos < 0 ; i++) {
+                page = pages.get(i);
+                pos = page.allocate(w, h);
+            }
+            if(pos < 0) {
+                page = new Page(pages.size(), pageWidth, pageHeight, bytesPerPixel);
+                pages.add(page);
+                pos = page.allocate(w, h);
+                assert pos >= 0;
+            }
+
+            int x = (int)pos + padding;
+            int y = (int)(pos >>> 32) + padding;
+            page.markDirty(x, y, width, height);
+            region = new Region(info, page, x, y, width, height);
+        }
+        regions.put(glyphIndex, region);
+        return region;
+    }
+
+    private void copyLoadedGlyph(FreeTypeFont font, Region region) throws IOException {
+        ByteBuffer dst = region.page.buffer;
+        if(region.info.isColor()) {
+            // don't reduce color glyphs to their alpha
+        } else if(order != null) {
+            dst.clear().position((region.y * pageWidth + region.x) * 3);
+            if(font.copyGlyphToByteBufferRGB(dst, pageWidth * 3, order, filter)) {
+                return;
+            }
+        } else if(FT2GlyphSlot.getPixelMode(font.face.glyph.getPointer()) == FT_PIXEL_MODE_GRAY) {
+            dst.clear().position(region.y * pageWidth + region.x);
+            if(font.copyGlyphToByteBuffer(dst, pageWidth)) {
+                return;
+            }
+        } else {
+            int size = region.info.width * region.info.height;
+            if(tmp == null || tmp.length < size) {
+                tmp = new byte[size];
+            }
+            if(font.copyGlyphToByteArray(tmp, 0, region.info.width)) {
+                for(int r=0 ; r<region.info.height ; r++) {
+                    dst.clear().position((region.y + r) * pageWidth + region.x);
+                    dst.put(tmp, r * region.info.width, region.info.width);
+                }
+                return;
+            }
+        }
+        clearRegion(region);
+    }
+
+    private void clearRegion(Region region) {
+        ByteBuffer dst = region.page.buffer;
+        for(int r=0 ; r<region.height ; r++) {
+            int off = ((region.y + r) * pageWidth + region.x) * bytesPerPixel;
+            for(int c=0,n=region.width*bytesPerPixel ; c<n ; c++) {
+                dst.put(off + c, (byte)0);
+            }
+        }
+    }
+
+    /**
+     * The location of a glyph inside the atlas.
+     */
+    public static final class Region {
+        final FreeTypeGlyphInfo info;
+        final Page page;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+
+        Region(FreeTypeGlyphInfo info, Page page, int x, int y, int width, int height) {
+            this.info = info;
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        public FreeTypeGlyphInfo getInfo() {
+            return info;
+        }
+
+        /**
+         * Returns the page index of this glyph.
+         * @return the page index or -1 if the glyph has no bitmap
+         */
+        public int getPageIndex() {
+            return (page != null) ? page.index : -1;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        /**
+         * Returns the width of the glyph in the page. For RGB pages this is
+         * the width in pixels, otherwise the width of the glyph bitmap.
+         * @return the width of the glyph in the page
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public float getU0() {
+            return (page != null) ? (float)x / page.width : 0;
+        }
+
+        public float getV0() {
+            return (page != null) ? (float)y / page.height : 0;
+        }
+
+        public float getU1() {
+            return (page != null) ? (float)(x + width) / page.width : 0;
+        }
+
+        public float getV1() {
+            return (page != null) ? (float)(y + height) / page.height : 0;
+        }
+    }
+
+    /**
+     * A single page of the atlas.
+     * 
+     * <p>The page tracks the area which was modified since the last call to
+     * {@link #clearDirty() } to allow incremental texture updates.</p>
+     */
+    public static final class Page {
+        final int index;
+        final int width;
+        final int height;
+        final int bytesPerPixel;
+        final ByteBuffer buffer;
+        long usedArea;
+
+        // skyline segments
+        private int[] segX;
+        private int[] segY;
+        private int[] segW;
+        private int numSegs;
+
+        private int dirtyX0;
+        private int dirtyY0;
+        private int dirtyX1;
+        private int dirtyY1;
+
+        Page(int index, int width, int height, int bytesPerPixel) {
+            this.index = index;
+            this.width = width;
+            this.height = height;
+            this.bytesPerPixel = bytesPerPixel;
+            this.buffer = ByteBuffer.allocateDirect(width * height * bytesPerPixel);
+            this.segX = new int[16];
+            this.segY = new int[16];
+            this.segW = new int[16];
+            this.segW[0] = width;
+            this.numSegs = 1;
+            clearDirty();
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getBytesPerPixel() {
+            return bytesPerPixel;
+        }
+
+        /**
+         * Returns a view of the page pixels. The position of the returned
+         * buffer is 0 and the limit is width*height*bytesPerPixel.
+         * @return a view of the page pixels
+         */
+        public ByteBuffer getBuffer() {
+            ByteBuffer bb = buffer.duplicate();
+            bb.clear();
+            return bb;
+        }
+
+        public float getOccupancy() {
+            return (float)usedArea / ((long)width * height);
+        }
+
+        public boolean isDirty() {
+            return dirtyX0 < dirtyX1;
+        }
+
+        public int getDirtyX() {
+            return dirtyX0;
+        }
+
+        public int getDirtyY() {
+            return dirtyY0;
+        }
+
+        public int getDirtyWidth() {
+            return Math.max(0, dirtyX1 - dirtyX0);
+        }
+
+        public int getDirtyHeight() {
+            return Math.max(0, dirtyY1 - dirtyY0);
+        }
+
+        public void clearDirty() {
+            dirtyX0 = width;
+            dirtyY0 = height;
+            dirtyX1 = 0;
+            dirtyY1 = 0;
+        }
+
+        void markDirty(int x, int y, int w, int h) {
+            dirtyX0 = Math.min(dirtyX0, x);
+            dirtyY0 = Math.min(dirtyY0, y);
+            dirtyX1 = Math.max(dirtyX1, x + w);
+            dirtyY1 = Math.max(dirtyY1, y + h);
+        }
+
+        /**
+         * Allocates an area using the skyline bottom-left heuristic.
+         * @return the position as (y &lt;&lt; 32) | x or -1 if it doesn't fit
+         */
+        long allocate(int w, int h) {
+            int bestIdx = -1;
+            int bestY = Integer.MAX_VALUE;
+            int bestW = Integer.MAX_VALUE;
+
+            for(int i=0 ; i<numSegs ; i++) {
+                int y = fit(i, w, h);
+                if(y >= 0 && (y + h < bestY || (y + h == bestY && segW[i] < bestW))) {
+                    bestIdx = i;
+                    bestY = y + h;
+                    bestW = segW[i];
+                }
+            }
+
+            if(bestIdx < 0) {
+                return -1;
+            }
+
+            int x = segX[bestIdx];
+            int y = bestY - h;
+            addSegment(bestIdx, x, bestY, w);
+            usedArea += (long)w * h;
+            return ((long)y << 32) | x;
+        }
+
+        private int fit(int idx, int w, int h) {
+            int x = segX[idx];
+            if(x + w > width) {
+                return -1;
+            }
+            int y = 0;
+            for(int remaining=w ; remaining>0 ; idx++) {
+                y = Math.max(y, segY[idx]);
+                if(y + h > height) {
+                    return -1;
+                }
+                remaining -= segW[idx];
+            }
+            return y;
+        }
+
+        private void addSegment(int idx, int x, int y, int w) {
+            if(numSegs == segX.length) {
+                segX = grow(segX);
+                segY = grow(segY);
+                segW = grow(segW);
+            }
+            System.arraycopy(segX, idx, segX, idx+1, numSegs-idx);
+            System.arraycopy(segY, idx, segY, idx+1, numSegs-idx);
+            System.arraycopy(segW, idx, segW, idx+1, numSegs-idx);
+            segX[idx] = x;
+            segY[idx] = y;
+            segW[idx] = w;
+            numSegs++;
+
+            // shrink or remove the segments covered by the new one
+            int end = x + w;
+            int i = idx + 1;
+            while(i < numSegs && segX[i] < end) {
+                int segEnd = segX[i] + segW[i];
+                if(segEnd <= end) {
+                    removeSegment(i);
+                } else {
+                    segW[i] = segEnd - end;
+                    segX[i] = end;
+                    break;
+                }
+            }
+
+            // merge neighbours with the same height
+            for(i=0 ; i<numSegs-1 ;) {
+                if(segY[i] == segY[i+1]) {
+                    segW[i] += segW[i+1];
+                    removeSegment(i+1);
+                } else {
+                    i++;
+                }
+            }
+        }
+
+        private void removeSegment(int idx) {
+            int count = numSegs - idx - 1;
+            System.arraycopy(segX, idx+1, segX, idx, count);
+            System.arraycopy(segY, idx+1, segY, idx, count);
+            System.arraycopy(segW, idx+1, segW, idx, count);
+            numSegs--;
+        }
+
+        private static int[] grow(int[] array) {
+            int[] tmp = new int[array.length * 2];
+            System.arraycopy(array, 0, tmp, 0, array.length);
+            return tmp;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A rendered glyph bitmap stored in Java memory.
+ * 
+ * <p>The bitmap is stored as 8 bit coverage values with a stride equal
+ * to the bitmap width. Color glyphs are stored as premultiplied RGBA with
+ * 4 bytes per pixel and a stride of 4 times the bitmap width. Glyphs
+ * without visible pixels (eg space) have no bitmap.</p>
+ *
+ * @author Matthias Mann
+ */
+public final class FreeTypeGlyphBitmap {
+
+    final FreeTypeGlyphInfo info;
+    final byte[] data;
+
+    FreeTypeGlyphBitmap(FreeTypeGlyphInfo info, byte[] data) {
+        this.info = info;
+        this.data = data;
+    }
+
+    public FreeTypeGlyphInfo getInfo() {
+        return info;
+    }
+
+    public int getWidth() {
+        return info.width;
+    }
+
+    public int getHeight() {
+        return info.height;
+    }
+
+    public boolean hasBitmap() {
+        return data != null;
+    }
+
+    /**
+     * Returns the number of bytes per pixel of the bitmap.
+     * @return 4 for color glyphs, otherwise 1
+     * @see FreeTypeGlyphInfo#isColor() 
+     */
+    public int getBytesPerPixel() {
+        return info.isColor() ? 4 : 1;
+    }
+
+    /**
+     * Returns the number of bytes used by the bitmap
+     * @return the number of bytes used by the bitmap
+     */
+    public int getByteSize() {
+        return (data != null) ? data.length : 0;
+    }
+
+    /**
+     * Copies the bitmap into the specified byte array.
+     * 
+     * @param dst the destination array
+     * @param dstOff the offset of the top left pixel
+     * @param stride the offset between rows in bytes
+     * @return false if this glyph has no bitmap
+     * @see #getBytesPerPixel() 
+     */
+    public boolean copyToByteArray(byte[] dst, int dstOff, int stride) {
+        if(data == null) {
+            return false;
+        }
+        final int width = info.width * getBytesPerPixel();
+        for(int r=0,srcOff=0 ; r<info.height ; r++,srcOff+=width,dstOff+=stride) {
+            System.arraycopy(data, srcOff, dst, dstOff, width);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the bitmap into the specified byte buffer starting at its
+     * current position.
+     * 
+     * @param dst the destination buffer
+     * @param stride the offset between rows in bytes
+     * @return false if this glyph has no bitmap
+     * @see #getBytesPerPixel() 
+     */
+    public boolean copyToByteBuffer(ByteBuffer dst, int stride) {
+        if(data == null) {
+            return false;
+        }
+        final int width = info.width * getBytesPerPixel();
+        int dstOff = dst.position();
+        for(int r=0,srcOff=0 ; r<info.height ; r++,srcOff+=width,dstOff+=stride) {
+            dst.position(dstOff);
+            dst.put(data, srcOff, width);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the bitmap as packed RGB with 3 bytes per pixel into the
+     * specified byte buffer starting at its current position.
+     * 
+     * <p>LCD glyphs use their subpixel coverage for the 3 channels, other
+     * glyphs use the same coverage for all channels.</p>
+     * 
+     * @param dst the destination buffer
+     * @param stride the offset between rows in bytes
+     * @param order the subpixel order of the display - used for LCD glyphs
+     * @param filter the FIR filter for LCD glyphs, or null for no filtering
+     * @return false if this glyph has no bitmap or is a color glyph
+     * @see FreeTypeGlyphInfo#getPixelWidth() 
+     * @see FreeTypeGlyphInfo#getPixelHeight() 
+     */
+    public boolean copyToByteBufferRGB(ByteBuffer dst, int stride, FreeTypeFont.SubpixelOrder order, FreeTypeLCDFilter filter) {
+        if(data == null || info.isColor()) {
+            return false;
+        }
+        final ByteBuffer src = ByteBuffer.wrap(data);
+        final int width = info.getPixelWidth();
+        final int height = info.getPixelHeight();
+        final int first = (order == FreeTypeFont.SubpixelOrder.BGR) ? 2 : 0;
+        final boolean lcd = info.isLCD();
+        int dstRowOff = dst.position();
+        for(int r=0 ; r<height ; r++,dstRowOff+=stride) {
+            for(int c=0,dstOff=dstRowOff ; c<width ; c++,dstOff+=3) {
+                if(lcd) {
+                    dst.put(dstOff + first,   (byte)subpixel(src, c, r, 0, filter));
+                    dst.put(dstOff + 1,       (byte)subpixel(src, c, r, 1, filter));
+                    dst.put(dstOff + 2-first, (byte)subpixel(src, c, r, 2, filter));
+                } else {
+                    byte value = data[r * width + c];
+                    dst.put(dstOff    , value);
+                    dst.put(dstOff + 1, value);
+                    dst.put(dstOff + 2, value);
+                }
+            }
+        }
+        return true;
+    }
+
+    private int subpixel(ByteBuffer src, int x, int y, int sub, FreeTypeLCDFilter filter) {
+        int lineOff, step, idx, count;
+        if(info.pixelMode == FT2Library.FT_PIXEL_MODE_LCD) {
+            lineOff = y * info.width;
+            step = 1;
+            idx = x * 3 + sub;
+            count = info.width;
+        } else {
+            lineOff = x;
+            step = info.width;
+            idx = y * 3 + sub;
+            count = info.height;
+        }
+        if(filter != null) {
+            return filter.filter(src, lineOff, step, idx, count);
+        }
+        return data[lineOff + idx * step] & 255;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+
+/**
+ * A cache for rendered glyph bitmaps.
+ * 
+ * <p>Glyphs are identified by the font data, the scale of the active
+ * {@link FreeTypeFont.Size}, the glyph index and the load flags. Fonts which
+ * share the same font data buffer also share cache entries. Cached glyphs
+ * don't keep the font data of closed fonts alive.</p>
+ * 
+ * <p>The cache is split into several shards which are each guarded by their
+ * own lock and use LRU eviction to stay below their share of the byte
+ * budget.</p>
+ * 
+ * <p>NOTE: This class is thread safe - but the {@code FreeTypeFont} passed
+ * to {@link #getGlyph(de.matthiasmann.javafreetype.FreeTypeFont, int, int) }
+ * must not be used concurrently.</p>
+ *
+ * @author Matthias Mann
+ * @see FreeTypeGlyphWarmup
+ */
+public class FreeTypeGlyphCache {
+
+    /**
+     * Estimated overhead of a cache entry in bytes
+     */
+    static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * Marks distance field entries in the key - not used by FreeType load flags
+     */
+    static final int SDF_KEY_FLAG = 1 << 31;
+
+    private final Shard[] shards;
+    private final int shardMask;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /**
+     * Creates a new glyph cache with the number of shards based on the
+     * available processors.
+     * 
+     * @param maxBytes the maximum number of bytes used by cached bitmaps
+     */
+    public FreeTypeGlyphCache(long maxBytes) {
+        this(maxBytes, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Creates a new glyph cache.
+     * 
+     * @param maxBytes the maximum number of bytes used by cached bitmaps
+     * @param numShards the number of shards - rounded up to a power of 2
+     */
+    public FreeTypeGlyphCache(long maxBytes, int numShards) {
+        if(maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes");
+        }
+        if(numShards <= 0) {
+            throw new IllegalArgumentException("numShards");
+        }
+        int count = Integer.highestOneBit(numShards);
+        if(count < numShards) {
+            count <<= 1;
+        }
+        long shardBytes = Math.max(1, maxBytes / count);
+        this.shards = new Shard[count];
+        this.shardMask = count - 1;
+        for(int i=0 ; i<count ; i++) {
+            shards[i] = new Shard(shardBytes);
+        }
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Returns the glyph bitmap rendered using FT_LOAD_RENDER and the specified
+     * target. The glyph is only loaded if it is not in the cache.
+     * 
+     * @param font the font at the size to use
+     * @param glyphIndex the glyph index for this font
+     * @param target the load target
+     * @return the glyph bitmap
+     * @throws IOException if an error occured
+     */
+    public FreeTypeGlyphBitmap getGlyph(FreeTypeFont font, int glyphIndex, FreeTypeFont.LoadTarget target) throws IOException {
+        return getGlyph(font, glyphIndex, FT_LOAD_RENDER | target.target);
+    }
+
+    /**
+     * Returns the glyph bitmap using the specified load flags. The glyph is
+     * only loaded if it is not in the cache.
+     * 
+     * <p>NOTE: This method may change the glyph loaded in the font.</p>
+     * 
+     * @param font the font at the size to use
+     * @param glyphIndex the glyph index for this font
+     * @param flags the FreeType load flags
+     * @return the glyph bitmap
+     * @throws IOException if an error occured
+     */
+    public FreeTypeGlyphBitmap getGlyph(FreeTypeFont font, int glyphIndex, int flags) throws IOException {
+        font.ensureOpen();
+        GlyphKey key = new GlyphKey(font, glyphIndex, flags);
+        Shard shard = shards[key.hash & shardMask];
+        FreeTypeGlyphBitmap glyph = shard.get(key);
+        if(glyph != null) {
+            hits.incrementAndGet();
+            return glyph;
+        }
+        misses.incrementAndGet();
+        glyph = font.loadGlyphBitmap(glyphIndex, flags);
+        return shard.put(key, glyph);
+    }
+
+    /**
+     * Returns the signed distance field of a glyph. The distance field is
+     * only rendered if it is not in the cache.
+     * 
+     * @param font the font at the size to use
+     * @param glyphIndex the glyph index for this font
+     * @param spread the distance range in pixels
+     * @return the distance field
+     * @throws IOException if an error occured
+     * @see FreeTypeFont#renderGlyphSDF(int, int) 
+     */
+    public FreeTypeGlyphBitmap getGlyphSDF(FreeTypeFont font, int glyphIndex, int spread) throws IOException {
+        font.ensureOpen();
+        GlyphKey key = new GlyphKey(font, glyphIndex, SDF_KEY_FLAG | spread);
+        Shard shard = shards[key.hash & shardMask];
+        FreeTypeGlyphBitmap glyph = shard.get(key);
+        if(glyph != null) {
+            hits.incrementAndGet();
+            return glyph;
+        }
+        misses.incrementAndGet();
+        glyph = font.renderGlyphSDF(glyphIndex, spread);
+        return shard.put(key, glyph);
+    }
+
+    /**
+     * Checks if the specified glyph is in the cache without loading it.
+     * 
+     * @param font the font at the size to use
+     * @param glyphIndex the glyph index for this font
+     * @param flags the FreeType load flags
+     * @return true if the glyph is cached
+     * @throws IOException if the font has been closed
+     */
+    public boolean contains(FreeTypeFont font, int glyphIndex, int flags) throws IOException {
+        font.ensureOpen();
+        GlyphKey key = new GlyphKey(font, glyphIndex, flags);
+        return shards[key.hash & shardMask].contains(key);
+    }
+
+    /**
+     * Removes all glyphs from the cache. This does not reset the statistics.
+     */
+    public void clear() {
+        for(Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of bytes currently used by the cached glyphs.
+     * This includes an estimated per entry overhead.
+     * 
+     * @return the number of bytes used
+     */
+    public long getByteSize() {
+        long size = 0;
+        for(Shard shard : shards) {
+            size += shard.getByteSize();
+        }
+        return size;
+    }
+
+    public int getGlyphCount() {
+        int count = 0;
+        for(Shard shard : shards) {
+            count += shard.getGlyphCount();
+        }
+        return count;
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    static int entrySize(FreeTypeGlyphBitmap glyph) {
+        return glyph.getByteSize() + ENTRY_OVERHEAD;
+    }
+
+    final class Shard {
+        private final LinkedHashMap<GlyphKey, FreeTypeGlyphBitmap> map;
+        private final long maxBytes;
+        private long curBytes;
+
+        Shard(long maxBytes) {
+            this.map = new LinkedHashMap<GlyphKey, FreeTypeGlyphBitmap>(64, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized FreeTypeGlyphBitmap get(GlyphKey key) {
+            return map.get(key);
+        }
+
+        synchronized boolean contains(GlyphKey key) {
+            return map.containsKey(key);
+        }
+
+        synchronized FreeTypeGlyphBitmap put(GlyphKey key, FreeTypeGlyphBitmap glyph) {
+            FreeTypeGlyphBitmap old = map.get(key);
+            if(old != null) {
+                // another thread was faster
+                return old;
+            }
+            map.put(key, glyph);
+            curBytes += entrySize(glyph);
+            if(curBytes > maxBytes) {
+                evict();
+            }
+            return glyph;
+        }
+
+        synchronized void clear() {
+            map.clear();
+            curBytes = 0;
+        }
+
+        synchronized long getByteSize() {
+            return curBytes;
+        }
+
+        synchronized int getGlyphCount() {
+            return map.size();
+        }
+
+        private void evict() {
+            Iterator<FreeTypeGlyphBitmap> iter = map.values().iterator();
+            // always keep the most recently added entry
+            while(curBytes > maxBytes && map.size() > 1) {
+                FreeTypeGlyphBitmap glyph = iter.next();
+                iter.remove();
+                curBytes -= entrySize(glyph);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    static final class GlyphKey {
+        final Object faceKey;
+        final int faceIndex;
+        final long xScale;
+        final long yScale;
+        final int ppem;
+        final int glyphIndex;
+        final int flags;
+        final int hash;
+
+        GlyphKey(FreeTypeFont font, int glyphIndex, int flags) {
+            FT_Size_Metrics metrics = font.face.size.metrics;
+            this.faceKey = font.getFaceKey();
+            this.faceIndex = font.faceIndex;
+            this.xScale = metrics.x_scale.longValue();
+            this.yScale = metrics.y_scale.longValue();
+            this.ppem = (metrics.x_ppem << 16) | (metrics.y_ppem & 0xFFFF);
+            this.glyphIndex = glyphIndex;
+            this.flags = flags;
+
+            int h = System.identityHashCode(faceKey);
+            h = h * 31 + faceIndex;
+            h = h * 31 + (int)(xScale ^ (xScale >>> 32));
+            h = h * 31 + (int)(yScale ^ (yScale >>> 32));
+            h = h * 31 + ppem;
+            h = h * 31 + glyphIndex;
+            h = h * 31 + flags;
+            // spread the bits used to select the shard
+            h ^= (h >>> 20) ^ (h >>> 12);
+            this.hash = h ^ (h >>> 7) ^ (h >>> 4);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof GlyphKey)) {
+                return false;
+            }
+            final GlyphKey other = (GlyphKey)obj;
+            return this.faceKey == other.faceKey &&
+                    this.faceIndex == other.faceIndex &&
+                    this.glyphIndex == other.glyphIndex &&
+                    this.flags == other.flags &&
+                    this.xScale == other.xScale &&
+                    this.yScale == other.yScale &&
+                    this.ppem == other.ppem;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
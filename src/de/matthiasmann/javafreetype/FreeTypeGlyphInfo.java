@@ -29,6 +29,8 @@
  */
 package de.matthiasmann.javafreetype;
 
+import com.sun.jna.Pointer;
+
 import static de.matthiasmann.javafreetype.FT2Library.*;
 import static de.matthiasmann.javafreetype.FT2Helper.*;
 
@@ -44,32 +46,90 @@ public class FreeTypeGlyphInfo {
     final int offsetY;
     final int advanceX;
     final int advanceY;
+    final int pixelMode;
 
-    FreeTypeGlyphInfo(FT_GlyphSlot slot) {
-        if(slot.format == FT_GLYPH_FORMAT_BITMAP) {
-            this.width   = slot.bitmap.width;
-            this.height  = slot.bitmap.rows;
-            this.offsetX = slot.bitmap_left;
-            this.offsetY = slot.bitmap_top;
+    FreeTypeGlyphInfo(Pointer slot) {
+        if(FT2GlyphSlot.isBitmap(slot)) {
+            this.pixelMode = FT2GlyphSlot.getPixelMode(slot);
+            this.width   = FT2GlyphSlot.getBitmapWidth(slot);
+            this.height  = FT2GlyphSlot.getBitmapRows(slot);
+            this.offsetX = FT2GlyphSlot.getBitmapLeft(slot);
+            this.offsetY = FT2GlyphSlot.getBitmapTop(slot);
         } else {
+            this.pixelMode = FT_PIXEL_MODE_NONE;
             this.width   = 0;
             this.height  = 0;
             this.offsetX = 0;
             this.offsetY = 0;
         }
         
-        this.advanceX = round26_6(slot.advance.x);
-        this.advanceY = round26_6(slot.advance.y);
+        this.advanceX = round26_6(FT2GlyphSlot.getAdvanceX(slot));
+        this.advanceY = round26_6(FT2GlyphSlot.getAdvanceY(slot));
+    }
+
+    FreeTypeGlyphInfo(int width, int height, int offsetX, int offsetY, int advanceX, int advanceY) {
+        this.width = width;
+        this.height = height;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.advanceX = advanceX;
+        this.advanceY = advanceY;
+        this.pixelMode = FT_PIXEL_MODE_GRAY;
     }
 
+    /**
+     * Returns the width of the bitmap. For LCD glyphs this is the number
+     * of subpixels - 3 times the width in pixels.
+     * @return the width of the bitmap
+     * @see #getPixelWidth() 
+     */
     public int getWidth() {
         return width;
     }
 
+    /**
+     * Returns the height of the bitmap. For vertical LCD glyphs this is the
+     * number of subpixel rows - 3 times the height in pixels.
+     * @return the height of the bitmap
+     * @see #getPixelHeight() 
+     */
     public int getHeight() {
         return height;
     }
 
+    /**
+     * Returns the width in pixels of the copied glyph image.
+     * @return the width in pixels
+     */
+    public int getPixelWidth() {
+        return (pixelMode == FT_PIXEL_MODE_LCD) ? width / 3 : width;
+    }
+
+    /**
+     * Returns the height in pixels of the copied glyph image.
+     * @return the height in pixels
+     */
+    public int getPixelHeight() {
+        return (pixelMode == FT_PIXEL_MODE_LCD_V) ? height / 3 : height;
+    }
+
+    /**
+     * Checks if the glyph is a color glyph with a premultiplied BGRA bitmap.
+     * @return true if the glyph has a BGRA bitmap
+     * @see FreeTypeFont#loadColorGlyph(int) 
+     */
+    public boolean isColor() {
+        return pixelMode == FT_PIXEL_MODE_BGRA;
+    }
+
+    /**
+     * Checks if the glyph has been rendered with subpixel coverage.
+     * @return true if the glyph has a LCD or LCD_V bitmap
+     */
+    public boolean isLCD() {
+        return pixelMode == FT_PIXEL_MODE_LCD || pixelMode == FT_PIXEL_MODE_LCD_V;
+    }
+
     public int getOffsetX() {
         return offsetX;
     }
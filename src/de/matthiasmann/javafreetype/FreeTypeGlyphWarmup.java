@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+
+/**
+ * Pre-renders a set of code points into a {@link FreeTypeGlyphCache} so
+ * that the first requests don't have to load glyphs.
+ * 
+ * <p>The code points are rendered at each of the requested pixel sizes.
+ * Using a {@link FreeTypeFontPool} the work is split into batches which
+ * run in parallel on the supplied {@code Executor}:</p>
+ * <pre>
+ * FreeTypeGlyphWarmup warmup = new FreeTypeGlyphWarmup(cache);
+ * FreeTypeGlyphWarmup.Result result = warmup.run(pool,
+ *         FreeTypeGlyphWarmup.latin1(), new int[] { 12, 16, 24 }, executor, null);
+ * </pre>
+ * 
+ * <p>NOTE: This class is thread safe.</p>
+ *
+ * @author Matthias Mann
+ */
+public class FreeTypeGlyphWarmup {
+
+    private final FreeTypeGlyphCache cache;
+    private final int loadFlags;
+    private volatile int batchSize;
+
+    /**
+     * Creates a warm-up which renders glyphs using FT_LOAD_TARGET_NORMAL.
+     * 
+     * @param cache the cache to fill
+     */
+    public FreeTypeGlyphWarmup(FreeTypeGlyphCache cache) {
+        this(cache, FreeTypeFont.LoadTarget.NORMAL);
+    }
+
+    /**
+     * Creates a warm-up which renders glyphs using FT_LOAD_RENDER and the
+     * specified target - the same as {@link FreeTypeGlyphCache#getGlyph(de.matthiasmann.javafreetype.FreeTypeFont, int, de.matthiasmann.javafreetype.FreeTypeFont.LoadTarget) }.
+     * 
+     * @param cache the cache to fill
+     * @param target the load target
+     */
+    public FreeTypeGlyphWarmup(FreeTypeGlyphCache cache, FreeTypeFont.LoadTarget target) {
+        if(cache == null) {
+            throw new NullPointerException("cache");
+        }
+        this.cache = cache;
+        this.loadFlags = FT_LOAD_RENDER | target.target;
+        this.batchSize = 256;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of code points rendered by one task.
+     * @param batchSize the number of code points per task
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the printable ASCII code points (U+0020 to U+007E).
+     * @return a new array with the code points
+     */
+    public static int[] ascii() {
+        return range(0x20, 0x7E, 0);
+    }
+
+    /**
+     * Returns the printable Latin-1 code points (U+0020 to U+007E and
+     * U+00A0 to U+00FF).
+     * @return a new array with the code points
+     */
+    public static int[] latin1() {
+        int[] result = range(0x20, 0x7E, 0xFF - 0xA0 + 1);
+        for(int i=0,off=0x7E - 0x20 + 1 ; i<=0xFF-0xA0 ; i++) {
+            result[off + i] = 0xA0 + i;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the distinct code points of the specified text in the order
+     * of their first occurrence. This can be used with a frequency list of
+     * CJK characters.
+     * 
+     * @param text the text
+     * @return a new array with the code points
+     */
+    public static int[] codePoints(CharSequence text) {
+        int[] result = new int[text.length()];
+        int count = 0;
+        HashSet<Integer> seen = new HashSet<Integer>();
+        for(int i=0,n=text.length() ; i<n ;) {
+            int cp = Character.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if(seen.add(cp)) {
+                result[count++] = cp;
+            }
+        }
+        return copyOf(result, count);
+    }
+
+    /**
+     * Returns all code points which are mapped by the font.
+     * 
+     * @param font the font
+     * @return a new array with the code points
+     * @throws IOException if an error occured
+     * @see FreeTypeFont#iterateCodePoints() 
+     */
+    public static int[] codePoints(FreeTypeFont font) throws IOException {
+        int[] result = new int[256];
+        int count = 0;
+        FreeTypeCodePointIterator iter = font.iterateCodePoints();
+        while(iter.nextCodePoint()) {
+            if(count == result.length) {
+                result = copyOf(result, count * 2);
+            }
+            result[count++] = iter.getCodePoint();
+        }
+        return copyOf(result, count);
+    }
+
+    /**
+     * Renders the code points at all sizes using a single font on the
+     * calling thread. The active size of the font is changed.
+     * 
+     * @param font the font
+     * @param codePoints the code points to render
+     * @param pixelSizes the pixel heights
+     * @param listener the progress listener or null
+     * @return the statistics of this run
+     * @throws IOException if an error occured
+     */
+    public Result run(FreeTypeFont font, int[] codePoints, int[] pixelSizes, ProgressListener listener) throws IOException {
+        Counter counter = new Counter(codePoints.length * pixelSizes.length, listener);
+        long start = System.nanoTime();
+        for(int size : pixelSizes) {
+            font.setPixelSize(0, size);
+            renderBatch(font, codePoints, 0, codePoints.length, counter);
+        }
+        return counter.createResult(System.nanoTime() - start);
+    }
+
+    /**
+     * Renders the code points at all sizes in parallel. Each task acquires
+     * a font from the pool, so the number of tasks running concurrently is
+     * limited by the pool size. Blocks until all tasks have completed.
+     * 
+     * @param pool the font pool
+     * @param codePoints the code points to render
+     * @param pixelSizes the pixel heights
+     * @param executor the executor which runs the tasks
+     * @param listener the progress listener or null - called from the worker threads
+     * @return the statistics of this run
+     * @throws IOException if an error occured
+     */
+    public Result run(final FreeTypeFontPool pool, final int[] codePoints, int[] pixelSizes, Executor executor, ProgressListener listener) throws IOException {
+        final Counter counter = new Counter(codePoints.length * pixelSizes.length, listener);
+        final int batch = batchSize;
+        final int batchesPerSize = (codePoints.length + batch - 1) / batch;
+        final CountDownLatch done = new CountDownLatch(batchesPerSize * pixelSizes.length);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        long start = System.nanoTime();
+
+        for(final int size : pixelSizes) {
+            for(int off=0 ; off<codePoints.length ; off+=batch) {
+                final int batchOff = off;
+                final int batchLen = Math.min(batch, codePoints.length - off);
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            if(error.get() == null) {
+                                FreeTypeFont font = pool.acquire();
+                                try {
+                                    font.setPixelSize(0, size);
+                                    renderBatch(font, codePoints, batchOff, batchLen, counter);
+                                } finally {
+                                    pool.release(font);
+                                }
+                            }
+                        } catch(Throwable ex) {
+                            error.compareAndSet(null, ex);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+        }
+
+        try {
+            done.await();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw (IOException)new InterruptedIOException().initCause(ex);
+        }
+
+        Throwable ex = error.get();
+        if(ex instanceof IOException) {
+            throw (IOException)ex;
+        }
+        if(ex instanceof InterruptedException) {
+            throw (IOException)new InterruptedIOException().initCause(ex);
+        }
+        if(ex instanceof RuntimeException) {
+            throw (RuntimeException)ex;
+        }
+        if(ex instanceof Error) {
+            throw (Error)ex;
+        }
+        return counter.createResult(System.nanoTime() - start);
+    }
+
+    /**
+     * Adds the glyphs of the code points to the atlas. Glyphs are taken from
+     * the cache and rendered if necessary. The atlas is not thread safe, so
+     * this runs on the calling thread - use {@link #run(de.matthiasmann.javafreetype.FreeTypeFontPool, int[], int[], java.util.concurrent.Executor, de.matthiasmann.javafreetype.FreeTypeGlyphWarmup.ProgressListener) }
+     * first to render the glyphs in parallel.
+     * 
+     * @param font the font at the size of the atlas
+     * @param atlas the atlas to fill
+     * @param codePoints the code points to add
+     * @param listener the progress listener or null
+     * @return the statistics of this run
+     * @throws IOException if an error occured
+     * @throws IllegalArgumentException if a glyph is larger than a page of the atlas
+     */
+    public Result fillAtlas(FreeTypeFont font, FreeTypeGlyphAtlas atlas, int[] codePoints, ProgressListener listener) throws IOException {
+        Counter counter = new Counter(codePoints.length, listener);
+        long start = System.nanoTime();
+        for(int cp : codePoints) {
+            int glyphIndex = font.getGlyphForCodePoint(cp);
+            if(glyphIndex == 0) {
+                counter.missing.incrementAndGet();
+            } else if(atlas.getGlyph(glyphIndex) != null) {
+                counter.cached.incrementAndGet();
+            } else {
+                if(!cache.contains(font, glyphIndex, loadFlags)) {
+                    counter.rendered.incrementAndGet();
+                } else {
+                    counter.cached.incrementAndGet();
+                }
+                atlas.addGlyph(glyphIndex, cache.getGlyph(font, glyphIndex, loadFlags));
+            }
+            counter.completed(1);
+        }
+        return counter.createResult(System.nanoTime() - start);
+    }
+
+    void renderBatch(FreeTypeFont font, int[] codePoints, int off, int len, Counter counter) throws IOException {
+        int rendered = 0;
+        int cached = 0;
+        int missing = 0;
+        for(int i=0 ; i<len ; i++) {
+            int glyphIndex = font.getGlyphForCodePoint(codePoints[off + i]);
+            if(glyphIndex == 0) {
+                missing++;
+            } else if(cache.contains(font, glyphIndex, loadFlags)) {
+                cached++;
+            } else {
+                cache.getGlyph(font, glyphIndex, loadFlags);
+                rendered++;
+            }
+        }
+        counter.rendered.addAndGet(rendered);
+        counter.cached.addAndGet(cached);
+        counter.missing.addAndGet(missing);
+        counter.completed(len);
+    }
+
+    private static int[] copyOf(int[] src, int length) {
+        int[] result = new int[length];
+        System.arraycopy(src, 0, result, 0, Math.min(src.length, length));
+        return result;
+    }
+
+    private static int[] range(int first, int last, int extra) {
+        int[] result = new int[last - first + 1 + extra];
+        for(int i=first ; i<=last ; i++) {
+            result[i - first] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Receives progress updates of a warm-up run.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after a batch of code points has been processed.
+         * 
+         * @param completed the number of processed code points over all sizes
+         * @param total the total number of code points over all sizes
+         */
+        public void progress(int completed, int total);
+    }
+
+    /**
+     * The statistics of a warm-up run.
+     */
+    public static final class Result {
+        private final int total;
+        private final int rendered;
+        private final int cached;
+        private final int missing;
+        private final long elapsedNanos;
+
+        Result(int total, int rendered, int cached, int missing, long elapsedNanos) {
+            this.total = total;
+            this.rendered = rendered;
+            this.cached = cached;
+            this.missing = missing;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the number of processed code points over all sizes.
+         * @return the number of processed code points
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Returns the number of glyphs which have been rendered.
+         * @return the number of glyphs which have been rendered
+         */
+        public int getRendered() {
+            return rendered;
+        }
+
+        /**
+         * Returns the number of glyphs which were already cached.
+         * Code points which share a glyph are counted here too.
+         * @return the number of glyphs which were already cached
+         */
+        public int getCached() {
+            return cached;
+        }
+
+        /**
+         * Returns the number of code points which are not mapped by the font.
+         * @return the number of code points which are not mapped by the font
+         */
+        public int getMissing() {
+            return missing;
+        }
+
+        /**
+         * Returns the wall clock time of the run.
+         * @return the elapsed time in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Result[total=" + total + ", rendered=" + rendered +
+                    ", cached=" + cached + ", missing=" + missing +
+                    ", elapsed=" + (elapsedNanos / 1000000) + "ms]";
+        }
+    }
+
+    static final class Counter {
+        final int total;
+        final ProgressListener listener;
+        final AtomicInteger completed;
+        final AtomicInteger rendered;
+        final AtomicInteger cached;
+        final AtomicInteger missing;
+
+        Counter(int total, ProgressListener listener) {
+            this.total = total;
+            this.listener = listener;
+            this.completed = new AtomicInteger();
+            this.rendered = new AtomicInteger();
+            this.cached = new AtomicInteger();
+            this.missing = new AtomicInteger();
+        }
+
+        void completed(int count) {
+            int value = completed.addAndGet(count);
+            if(listener != null) {
+                listener.progress(value, total);
+            }
+        }
+
+        Result createResult(long elapsedNanos) {
+            return new Result(completed.get(), rendered.get(), cached.get(), missing.get(), elapsedNanos);
+        }
+    }
+}
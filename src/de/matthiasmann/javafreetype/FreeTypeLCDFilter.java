@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A 5 tap FIR filter which is applied to LCD subpixel coverage to reduce
+ * color fringes.
+ * 
+ * <p>The filter is applied along the subpixel direction (horizontal for
+ * {@link FreeTypeFont.LoadTarget#LCD}, vertical for
+ * {@link FreeTypeFont.LoadTarget#LCD_V}) when the glyph is copied. The
+ * weights are in 1/256 units and should add up to 256.</p>
+ * 
+ * @author Matthias Mann
+ */
+public final class FreeTypeLCDFilter {
+
+    /**
+     * The FreeType default filter (FT_LCD_FILTER_DEFAULT)
+     */
+    public static final FreeTypeLCDFilter DEFAULT = new FreeTypeLCDFilter(0x08, 0x4D, 0x56, 0x4D, 0x08);
+
+    /**
+     * The FreeType light filter (FT_LCD_FILTER_LIGHT) - sharper but with more color fringes
+     */
+    public static final FreeTypeLCDFilter LIGHT = new FreeTypeLCDFilter(0x00, 0x55, 0x56, 0x55, 0x00);
+
+    final int w0;
+    final int w1;
+    final int w2;
+    final int w3;
+    final int w4;
+
+    /**
+     * Creates a new filter.
+     * 
+     * @param w0 the weight of the subpixel 2 before the center
+     * @param w1 the weight of the subpixel before the center
+     * @param w2 the weight of the center subpixel
+     * @param w3 the weight of the subpixel after the center
+     * @param w4 the weight of the subpixel 2 after the center
+     */
+    public FreeTypeLCDFilter(int w0, int w1, int w2, int w3, int w4) {
+        if(w0 < 0 || w1 < 0 || w2 < 0 || w3 < 0 || w4 < 0) {
+            throw new IllegalArgumentException("negative weight");
+        }
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.w4 = w4;
+    }
+
+    /**
+     * Computes one filtered subpixel.
+     * 
+     * @param src the subpixel line
+     * @param off the offset of the first subpixel
+     * @param step the offset between subpixels
+     * @param idx the index of the subpixel to filter
+     * @param count the number of subpixels in this line
+     * @return the filtered coverage 0..255
+     */
+    int filter(ByteBuffer src, int off, int step, int idx, int count) {
+        int sum = w2 * (src.get(off + idx*step) & 255);
+        if(idx >= 1) {
+            sum += w1 * (src.get(off + (idx-1)*step) & 255);
+            if(idx >= 2) {
+                sum += w0 * (src.get(off + (idx-2)*step) & 255);
+            }
+        }
+        if(idx + 1 < count) {
+            sum += w3 * (src.get(off + (idx+1)*step) & 255);
+            if(idx + 2 < count) {
+                sum += w4 * (src.get(off + (idx+2)*step) & 255);
+            }
+        }
+        return Math.min(255, sum >> 8);
+    }
+}
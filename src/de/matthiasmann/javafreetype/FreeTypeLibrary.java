@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+import static de.matthiasmann.javafreetype.FT2Helper.*;
+
+/**
+ * A FreeType2 library instance which can be shared by many faces.
+ * 
+ * <p>Creating a face only requires parsing the font when the library
+ * already exists. The library stays alive until it has been closed and
+ * all faces created from it have been closed.</p>
+ * 
+ * <p>Threading: creating and closing faces is synchronized on the library.
+ * Each {@link FreeTypeFont} must still only be used by one thread at a time,
+ * but different fonts of the same library can be used concurrently with
+ * FreeType 2.6 or newer. Older FreeType versions share the renderer state
+ * between all faces of a library - use one library per thread with these.</p>
+ *
+ * @author Matthias Mann
+ */
+public final class FreeTypeLibrary implements Closeable {
+
+    Pointer library;
+    private final LibraryResource resource;
+    private int refCount;
+    private boolean closed;
+    private int sdfSpread;
+    private Memory propertyValue;
+
+    private FreeTypeLibrary(Pointer library) {
+        this.library = library;
+        this.refCount = 1;
+        this.resource = new LibraryResource(this, library);
+    }
+
+    /**
+     * Creates a new FreeType2 library instance.
+     * 
+     * @return the new library
+     * @throws IOException if the library could not be created, or if FreeType2 is not available
+     * @see FreeTypeFont#isAvailable() 
+     */
+    public static FreeTypeLibrary create() throws IOException {
+        FT2Helper.checkAvailable();
+        return new FreeTypeLibrary(FT_Init_FreeType());
+    }
+
+    /**
+     * Closes this library. The native library is destroyed once all faces
+     * created from it have been closed.
+     * 
+     * @throws IOException if an error occured
+     */
+    public void close() throws IOException {
+        synchronized(this) {
+            if(closed) {
+                return;
+            }
+            closed = true;
+        }
+        release();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the number of open faces which were created using this library.
+     * @return the number of open faces
+     */
+    public synchronized int getNumOpenFaces() {
+        return (library != null) ? refCount - (closed ? 0 : 1) : 0;
+    }
+
+    /**
+     * Sets the spread of the "sdf" and "bsdf" renderers.
+     * Must be called while holding the lock of this library.
+     */
+    void setSDFSpread(int spread) throws IOException {
+        assert Thread.holdsLock(this);
+        if(sdfSpread != spread) {
+            if(propertyValue == null) {
+                propertyValue = new Memory(4);
+            }
+            propertyValue.setInt(0, spread);
+            checkReturnCode(INSTANCE.FT_Property_Set(library, "sdf", "spread", propertyValue));
+            checkReturnCode(INSTANCE.FT_Property_Set(library, "bsdf", "spread", propertyValue));
+            sdfSpread = spread;
+        }
+    }
+
+    /**
+     * Creates a face from a memory buffer. Sibling faces are opened by an
+     * existing face of the same file - that face keeps the library alive
+     * even after it has been closed.
+     */
+    synchronized FT_Face newMemoryFace(ByteBuffer buffer, long faceIndex, boolean sibling) throws IOException {
+        if(closed && !sibling) {
+            throw new ClosedChannelException();
+        }
+        FT_Face face = FT_New_Memory_Face(library, buffer, faceIndex);
+        refCount++;
+        return face;
+    }
+
+    synchronized FT_Face openStreamFace(FT2Stream stream, long faceIndex, boolean sibling) throws IOException {
+        if(closed && !sibling) {
+            stream.closeSource();
+            throw new ClosedChannelException();
+        }
+        FT_Face face = null;
+        try {
+            face = FT_Open_Face(library, stream, faceIndex);
+        } finally {
+            // closeSource() ignores the second close if FreeType already closed the stream
+            if(face == null) {
+                stream.closeSource();
+            }
+        }
+        refCount++;
+        return face;
+    }
+
+    int doneFace(Pointer face) throws IOException {
+        int err;
+        synchronized(this) {
+            err = INSTANCE.FT_Done_Face(face);
+        }
+        release();
+        return err;
+    }
+
+    private synchronized void release() throws IOException {
+        if(--refCount == 0) {
+            library = null;
+            resource.clean();
+        }
+    }
+
+    /**
+     * Destroys the native library. Faces reference the library, so when the
+     * library is collected all its faces have already been released.
+     */
+    static final class LibraryResource extends FT2Cleaner.Resource {
+        private final Pointer library;
+
+        LibraryResource(FreeTypeLibrary owner, Pointer library) {
+            super(owner, true);
+            this.library = library;
+        }
+
+        @Override
+        void release() throws IOException {
+            checkReturnCode(INSTANCE.FT_Done_FreeType(library));
+        }
+
+        @Override
+        String getLeakDescription() {
+            return "FreeTypeLibrary";
+        }
+    }
+}
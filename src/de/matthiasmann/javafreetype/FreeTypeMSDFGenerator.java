@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import com.sun.jna.Pointer;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+
+/**
+ * Generates multi channel signed distance fields (MSDF) from glyph outlines.
+ * 
+ * <p>Unlike a single channel distance field, a MSDF keeps sharp corners when
+ * it is magnified. The glyph is reconstructed in a shader using the median
+ * of the red, green and blue channel:</p>
+ * <pre>
+ * float d = max(min(r, g), min(max(r, g), b));   // 0.5 is the edge
+ * </pre>
+ * 
+ * <p>The distance field is computed at the current size of the font. Glyphs
+ * are loaded without hinting and the distance values are in pixels of this
+ * size: 128 is the edge, 0 and 255 are {@code range} pixels outside or inside
+ * of the glyph. Each bitmap is larger than the glyph by {@code range} pixels
+ * on each side which is included in the glyph info offsets.</p>
+ * 
+ * <p>The glyph outlines are loaded on the calling thread as the font is not
+ * thread safe, the distance fields are computed on the executor.</p>
+ * 
+ * @author Matthias Mann
+ */
+public class FreeTypeMSDFGenerator {
+
+    private final FreeTypeFont font;
+    private final int range;
+    private final FT2Outline outline;
+
+    /**
+     * Creates a new MSDF generator.
+     * 
+     * @param font the font at the size used to generate the distance fields
+     * @param range the distance range in pixels, between 1 and 32
+     */
+    public FreeTypeMSDFGenerator(FreeTypeFont font, int range) {
+        if(font == null) {
+            throw new NullPointerException("font");
+        }
+        if(range < 1 || range > 32) {
+            throw new IllegalArgumentException("range");
+        }
+        this.font = font;
+        this.range = range;
+        this.outline = new FT2Outline();
+    }
+
+    public FreeTypeFont getFont() {
+        return font;
+    }
+
+    public int getRange() {
+        return range;
+    }
+
+    /**
+     * Generates the distance field of a single glyph on the calling thread.
+     * 
+     * @param glyphIndex the glyph index for the font
+     * @return the generated glyph
+     * @throws IOException if the glyph could not be loaded or has no outline
+     */
+    public Glyph generate(int glyphIndex) throws IOException {
+        return generate(new int[] { glyphIndex }, 0, 1, null)[0];
+    }
+
+    /**
+     * Generates the distance fields of several glyphs in parallel. All
+     * distance fields are stored in one direct ByteBuffer.
+     * 
+     * @param glyphIndices the glyph indices for the font
+     * @param off the index of the first glyph in glyphIndices
+     * @param len the number of glyphs
+     * @param executor the executor used to compute the distance fields,
+     *        or null to compute them on the calling thread
+     * @return the generated glyphs in the order of glyphIndices
+     * @throws IOException if a glyph could not be loaded or has no outline
+     */
+    public Glyph[] generate(int[] glyphIndices, int off, int len, Executor executor) throws IOException {
+        if(off < 0 || len < 0 || off + len > glyphIndices.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        final Glyph[] glyphs = new Glyph[len];
+        final MultiChannelDistanceField.Shape[] shapes = new MultiChannelDistanceField.Shape[len];
+        final double[] bounds = new double[4];
+        int totalSize = 0;
+
+        for(int i=0 ; i<len ; i++) {
+            int glyphIndex = glyphIndices[off + i];
+            Pointer slot = font.loadGlyphSlot(glyphIndex, FT_LOAD_NO_BITMAP | FT_LOAD_NO_HINTING);
+            FreeTypeGlyphInfo slotInfo = new FreeTypeGlyphInfo(slot);
+
+            MultiChannelDistanceField.Shape shape = new MultiChannelDistanceField.Shape();
+            outline.decode(slot, shape);
+
+            if(shape.isEmpty()) {
+                glyphs[i] = new Glyph(glyphIndex, new FreeTypeGlyphInfo(
+                        0, 0, 0, 0, slotInfo.advanceX, slotInfo.advanceY), 0);
+                continue;
+            }
+
+            shape.colorEdges();
+            shape.computeBounds(bounds);
+            int left = (int)Math.floor(bounds[0]) - range;
+            int bottom = (int)Math.floor(bounds[1]) - range;
+            int right = (int)Math.ceil(bounds[2]) + range;
+            int top = (int)Math.ceil(bounds[3]) + range;
+
+            glyphs[i] = new Glyph(glyphIndex, new FreeTypeGlyphInfo(
+                    right - left, top - bottom, left, top,
+                    slotInfo.advanceX, slotInfo.advanceY), totalSize);
+            shapes[i] = shape;
+            totalSize += (right - left) * (top - bottom) * 3;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(totalSize).order(ByteOrder.nativeOrder());
+        for(Glyph glyph : glyphs) {
+            glyph.setBuffer(buffer);
+        }
+
+        if(executor == null) {
+            MultiChannelDistanceField msdf = new MultiChannelDistanceField();
+            for(int i=0 ; i<len ; i++) {
+                if(shapes[i] != null) {
+                    glyphs[i].generate(msdf, shapes[i], range);
+                }
+            }
+            return glyphs;
+        }
+
+        int numTasks = 0;
+        for(MultiChannelDistanceField.Shape shape : shapes) {
+            if(shape != null) {
+                numTasks++;
+            }
+        }
+
+        final CountDownLatch done = new CountDownLatch(numTasks);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        for(int i=0 ; i<len ; i++) {
+            if(shapes[i] != null) {
+                final Glyph glyph = glyphs[i];
+                final MultiChannelDistanceField.Shape shape = shapes[i];
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            glyph.generate(LOCAL_MSDF.get(), shape, range);
+                        } catch(Throwable ex) {
+                            error.compareAndSet(null, ex);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+        }
+
+        try {
+            done.await();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw (IOException)new InterruptedIOException().initCause(ex);
+        }
+
+        Throwable ex = error.get();
+        if(ex instanceof RuntimeException) {
+            throw (RuntimeException)ex;
+        }
+        if(ex instanceof Error) {
+            throw (Error)ex;
+        }
+        return glyphs;
+    }
+
+    private static final ThreadLocal<MultiChannelDistanceField> LOCAL_MSDF =
+            new ThreadLocal<MultiChannelDistanceField>() {
+        @Override
+        protected MultiChannelDistanceField initialValue() {
+            return new MultiChannelDistanceField();
+        }
+    };
+
+    /**
+     * A generated distance field. The pixels are stored as 3 bytes (R, G, B)
+     * with a stride of {@code width*3}.
+     */
+    public static final class Glyph {
+        final int glyphIndex;
+        final FreeTypeGlyphInfo info;
+        final int offset;
+        private ByteBuffer buffer;
+
+        Glyph(int glyphIndex, FreeTypeGlyphInfo info, int offset) {
+            this.glyphIndex = glyphIndex;
+            this.info = info;
+            this.offset = offset;
+        }
+
+        public int getGlyphIndex() {
+            return glyphIndex;
+        }
+
+        public FreeTypeGlyphInfo getInfo() {
+            return info;
+        }
+
+        public int getWidth() {
+            return info.width;
+        }
+
+        public int getHeight() {
+            return info.height;
+        }
+
+        public boolean hasBitmap() {
+            return info.width > 0;
+        }
+
+        /**
+         * Returns the RGB data of this glyph. The returned buffer is a view
+         * of the shared buffer and has a capacity of {@code width*height*3}.
+         * 
+         * @return the RGB data
+         */
+        public ByteBuffer getData() {
+            ByteBuffer bb = buffer.duplicate();
+            bb.position(offset).limit(offset + info.width*info.height*3);
+            return bb.slice();
+        }
+
+        /**
+         * Copies the RGB data into the specified byte buffer starting at its
+         * current position.
+         * 
+         * @param dst the destination buffer
+         * @param stride the offset between rows in bytes
+         * @return false if this glyph has no bitmap
+         */
+        public boolean copyToByteBuffer(ByteBuffer dst, int stride) {
+            if(!hasBitmap()) {
+                return false;
+            }
+            final int rowBytes = info.width * 3;
+            ByteBuffer src = buffer.duplicate();
+            int dstOff = dst.position();
+            for(int r=0,srcOff=offset ; r<info.height ; r++,srcOff+=rowBytes,dstOff+=stride) {
+                src.limit(srcOff + rowBytes).position(srcOff);
+                dst.position(dstOff);
+                dst.put(src);
+            }
+            return true;
+        }
+
+        void setBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void generate(MultiChannelDistanceField msdf, MultiChannelDistanceField.Shape shape, int range) {
+            msdf.generate(shape, info.offsetX, info.offsetY, info.width, info.height,
+                    range, buffer, offset, info.width*3);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.awt.geom.GeneralPath;
+
+/**
+ * An outline sink which appends the outline to a Java2D path.
+ * 
+ * <p>The Y axis is flipped to match the Java2D coordinate system and the
+ * outline is translated to the specified origin. The path uses the
+ * non zero winding rule which works for TrueType and CFF outlines.</p>
+ * 
+ * <p>Several glyphs can be appended to the same path by changing the origin
+ * between glyphs:</p>
+ * <pre>
+ * FreeTypeOutlinePath path = new FreeTypeOutlinePath();
+ * for(...) {
+ *     path.setOrigin(penX, baseLine);
+ *     font.getGlyphOutline(glyph, FT2Library.FT_LOAD_DEFAULT, path);
+ *     penX += ...;
+ * }
+ * g.fill(path.getPath());
+ * </pre>
+ * 
+ * @author Matthias Mann
+ */
+public class FreeTypeOutlinePath implements FreeTypeOutlineSink {
+
+    private final GeneralPath path;
+    private float originX;
+    private float originY;
+
+    /**
+     * Creates a new outline path sink with an empty path.
+     */
+    public FreeTypeOutlinePath() {
+        this(new GeneralPath(GeneralPath.WIND_NON_ZERO));
+    }
+
+    /**
+     * Creates a new outline path sink which appends to an existing path.
+     * 
+     * @param path the path to append to
+     */
+    public FreeTypeOutlinePath(GeneralPath path) {
+        if(path == null) {
+            throw new NullPointerException("path");
+        }
+        this.path = path;
+    }
+
+    public GeneralPath getPath() {
+        return path;
+    }
+
+    /**
+     * Sets the position of the glyph origin in the path.
+     * 
+     * @param x the X coordinate of the glyph origin
+     * @param y the Y coordinate of the base line
+     */
+    public void setOrigin(float x, float y) {
+        this.originX = x;
+        this.originY = y;
+    }
+
+    public void moveTo(float x, float y) {
+        path.moveTo(originX + x, originY - y);
+    }
+
+    public void lineTo(float x, float y) {
+        path.lineTo(originX + x, originY - y);
+    }
+
+    public void quadTo(float cx, float cy, float x, float y) {
+        path.quadTo(originX + cx, originY - cy, originX + x, originY - y);
+    }
+
+    public void cubicTo(float c1x, float c1y, float c2x, float c2y, float x, float y) {
+        path.curveTo(originX + c1x, originY - c1y, originX + c2x, originY - c2y, originX + x, originY - y);
+    }
+
+    public void close() {
+        path.closePath();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+/**
+ * Receives the segments of a glyph outline.
+ * 
+ * <p>Coordinates are in pixels relative to the glyph origin on the base line
+ * with the Y axis pointing up (like FreeType, unlike Java2D).</p>
+ * 
+ * <p>Each contour starts with {@link #moveTo(float, float) } and ends with
+ * {@link #close() }. The last point of a contour is not necessarily equal to
+ * the first - {@code close()} implies a straight line back to it.</p>
+ * 
+ * @author Matthias Mann
+ * @see FreeTypeFont#getGlyphOutline(int, int, de.matthiasmann.javafreetype.FreeTypeOutlineSink) 
+ * @see FreeTypeOutlinePath
+ */
+public interface FreeTypeOutlineSink {
+
+    /**
+     * Starts a new contour.
+     */
+    public void moveTo(float x, float y);
+
+    public void lineTo(float x, float y);
+
+    /**
+     * Adds a quadratic bezier curve (a TrueType conic segment).
+     */
+    public void quadTo(float cx, float cy, float x, float y);
+
+    /**
+     * Adds a cubic bezier curve (a CFF / Type1 segment).
+     */
+    public void cubicTo(float c1x, float c1y, float c2x, float c2y, float x, float y);
+
+    /**
+     * Closes the current contour.
+     */
+    public void close();
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A random access source of font data which is read on demand by FreeType.
+ * 
+ * <p>Unlike the {@code ByteBuffer} based create methods of {@link FreeTypeFont}
+ * the font file is never copied into memory as a whole - FreeType only reads
+ * the tables and glyphs it needs. This is useful for large CJK fonts or for
+ * fonts which are fetched from a remote store using ranged requests.</p>
+ * 
+ * <p>The font takes ownership of the source: it is closed when the font and
+ * all other faces opened from it are closed, or when the font could not be created.</p>
+ * 
+ * <p>Faces opened with {@link FreeTypeFont#openFace(int) } share the source
+ * and can be used by different threads at the same time, so
+ * {@link #size() } and {@link #read(long, java.nio.ByteBuffer) } must be
+ * safe to call concurrently. Positional reads like
+ * {@link FileChannel#read(java.nio.ByteBuffer, long) } are, while a source
+ * which seeks a shared stream before reading must synchronize.</p>
+ * 
+ * @author Matthias Mann
+ * @see FreeTypeFont#create(de.matthiasmann.javafreetype.FreeTypeStreamSource) 
+ */
+public abstract class FreeTypeStreamSource implements Closeable {
+
+    /** number of open faces using this source */
+    private int refCount;
+
+    /**
+     * Returns the size of the font data in bytes.
+     * 
+     * @return the size of the font data
+     * @throws IOException if the size could not be determined
+     */
+    public abstract long size() throws IOException;
+
+    /**
+     * Reads font data starting at the specified position into the buffer.
+     * 
+     * <p>Implementations should fill the remaining space of the buffer
+     * unless the end of the data is reached. This method can be called
+     * concurrently by faces sharing this source and must not depend on
+     * a current position.</p>
+     * 
+     * @param position the position of the first byte to read
+     * @param dst the destination buffer
+     * @return the number of bytes read, or -1 if position is at or after the end
+     * @throws IOException if an I/O error occured
+     */
+    public abstract int read(long position, ByteBuffer dst) throws IOException;
+
+    /**
+     * Releases the resources of this source.
+     * The default implementation does nothing.
+     * 
+     * @throws IOException if an I/O error occured
+     */
+    public void close() throws IOException {
+    }
+
+    /**
+     * Creates a source which reads from the specified channel using
+     * positional reads. The position of the channel is not modified.
+     * 
+     * @param channel the channel of the font file
+     * @param closeChannel true if the channel should be closed together with the source
+     * @return the source
+     */
+    public static FreeTypeStreamSource create(FileChannel channel, boolean closeChannel) {
+        if(channel == null) {
+            throw new NullPointerException("channel");
+        }
+        return new ChannelSource(channel, closeChannel);
+    }
+
+    /**
+     * Creates a source which reads the specified file on demand.
+     * The file stays open until the source is closed.
+     * 
+     * @param file the font file
+     * @return the source
+     * @throws IOException if the file could not be opened
+     */
+    public static FreeTypeStreamSource create(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        return new ChannelSource(raf.getChannel(), true);
+    }
+
+    synchronized void acquire() {
+        refCount++;
+    }
+
+    /**
+     * Closes this source when the last face using it is gone.
+     */
+    final void release() throws IOException {
+        synchronized(this) {
+            if(--refCount > 0) {
+                return;
+            }
+        }
+        close();
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the data is reached.
+     */
+    final int readFully(long position, ByteBuffer dst) throws IOException {
+        int total = 0;
+        while(dst.hasRemaining()) {
+            int read = read(position + total, dst);
+            if(read < 0) {
+                break;
+            }
+            if(read == 0) {
+                throw new EOFException("No progress reading at position " + (position + total));
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    static final class ChannelSource extends FreeTypeStreamSource {
+        private final FileChannel channel;
+        private final boolean closeChannel;
+
+        ChannelSource(FileChannel channel, boolean closeChannel) {
+            this.channel = channel;
+            this.closeChannel = closeChannel;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public int read(long position, ByteBuffer dst) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closeChannel) {
+                channel.close();
+            }
+        }
+    }
+}
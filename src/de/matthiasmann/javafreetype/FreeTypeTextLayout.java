@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.io.IOException;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+import static de.matthiasmann.javafreetype.FT2Helper.*;
+
+/**
+ * Lays out a single line of horizontal text.
+ * 
+ * <p>The text is mapped to glyphs, kerning and the hinting corrections
+ * {@code lsb_delta}/{@code rsb_delta} are applied and the pen position of
+ * each glyph is written into caller supplied arrays. Glyphs are only loaded
+ * for their metrics which are cached per size - no bitmaps are rendered.</p>
+ * 
+ * <p>No complex shaping (ligatures, reordering, ...) is performed.</p>
+ * 
+ * <p>NOTE: This class is <b>NOT</b> thread safe and changes the glyph
+ * loaded in the font.</p>
+ *
+ * @author Matthias Mann
+ */
+public final class FreeTypeTextLayout {
+
+    private final FreeTypeFont font;
+    private int loadFlags;
+    private boolean useKerning;
+    private int penX;
+    private int penY;
+
+    /**
+     * Creates a layout for the specified font. The layout always uses the
+     * active size of the font.
+     * 
+     * @param font the font
+     */
+    public FreeTypeTextLayout(FreeTypeFont font) {
+        if(font == null) {
+            throw new NullPointerException("font");
+        }
+        this.font = font;
+        this.loadFlags = FT_LOAD_DEFAULT;
+        this.useKerning = true;
+    }
+
+    public FreeTypeFont getFont() {
+        return font;
+    }
+
+    /**
+     * Selects if glyph metrics should be hinted. Hinted layout produces
+     * integer advances which match glyphs rendered with hinting.
+     * Default is true.
+     * 
+     * @param hinting true to use hinted metrics
+     */
+    public void setHinting(boolean hinting) {
+        if(hinting) {
+            loadFlags &= ~FT_LOAD_NO_HINTING;
+        } else {
+            loadFlags |= FT_LOAD_NO_HINTING;
+        }
+    }
+
+    public boolean isHinting() {
+        return (loadFlags & FT_LOAD_NO_HINTING) == 0;
+    }
+
+    /**
+     * Sets the load target used for hinting the metrics.
+     * Should match the target used to render the glyphs.
+     * 
+     * @param target the load target
+     */
+    public void setLoadTarget(FreeTypeFont.LoadTarget target) {
+        loadFlags = (loadFlags & 0xFFFF) | target.target;
+    }
+
+    public boolean isUseKerning() {
+        return useKerning;
+    }
+
+    /**
+     * Selects if kerning is applied if the font has kerning information.
+     * Default is true.
+     * 
+     * @param useKerning true to apply kerning
+     */
+    public void setUseKerning(boolean useKerning) {
+        this.useKerning = useKerning;
+    }
+
+    /**
+     * Returns the horizontal pen position after the last glyph of the
+     * last layout call. This is the advance width of the text.
+     * 
+     * @return the pen position in pixels
+     */
+    public int getPenX() {
+        return penX;
+    }
+
+    /**
+     * Returns the vertical pen position after the last glyph of the
+     * last layout call.
+     * 
+     * @return the pen position in pixels
+     */
+    public int getPenY() {
+        return penY;
+    }
+
+    /**
+     * Lays out the whole text.
+     * 
+     * @see #layout(java.lang.CharSequence, int, int, int[], int[], int[]) 
+     */
+    public int layout(CharSequence text, int[] outGlyphs, int[] outX, int[] outY) throws IOException {
+        return layout(text, 0, text.length(), outGlyphs, outX, outY);
+    }
+
+    /**
+     * Lays out a part of a text starting at pen position 0,0.
+     * 
+     * <p>All output arrays must be at least {@code end-start} long. Surrogate
+     * pairs produce a single glyph.</p>
+     * 
+     * <p>NOTE: This method may replace the glyph loaded in the font - load
+     * the glyph again before using the {@code copyGlyphTo*} methods.</p>
+     * 
+     * @param text the text
+     * @param start the index of the first char
+     * @param end the index after the last char
+     * @param outGlyphs receives the glyph indices
+     * @param outX receives the horizontal pen position of each glyph in pixels
+     * @param outY receives the vertical pen position of each glyph in pixels
+     *             - may be null
+     * @return the number of glyphs
+     * @throws IOException if an error occured
+     */
+    public int layout(CharSequence text, int start, int end, int[] outGlyphs, int[] outX, int[] outY) throws IOException {
+        if(start < 0 || start > end || end > text.length() || outGlyphs.length < end - start ||
+                outX.length < end - start || (outY != null && outY.length < end - start)) {
+            throw new IndexOutOfBoundsException();
+        }
+        return layout0(text, start, end, outGlyphs, outX, outY);
+    }
+
+    /**
+     * Measures a part of a text without storing glyphs or positions.
+     * The range must already be checked.
+     * 
+     * @return the horizontal pen position after the last glyph in pixels
+     * @see FreeTypeFont#measureWidth(java.lang.CharSequence, int, int) 
+     */
+    int measure(CharSequence text, int start, int end) throws IOException {
+        layout0(text, start, end, null, null, null);
+        return penX;
+    }
+
+    /**
+     * The layout pass shared by {@link #layout(java.lang.CharSequence, int, int, int[], int[], int[]) }
+     * and {@link #measure(java.lang.CharSequence, int, int) }. All output
+     * arrays may be null.
+     */
+    private int layout0(CharSequence text, int start, int end, int[] outGlyphs, int[] outX, int[] outY) throws IOException {
+        final CharMapTable cmap = font.ensureCharMap();
+        final AdvanceCache advances = font.getAdvanceCache(loadFlags);
+        final boolean kerning = useKerning && font.face.hasKerning();
+        final boolean hinting = isHinting();
+        // unhinted layouts use fractional advances - don't round the kerning either
+        final int kernMode = hinting ? FT_KERNING_DEFAULT : FT_KERNING_UNFITTED;
+
+        long x = 0;
+        long y = 0;
+        int prevRsbDelta = 0;
+        int prevGlyph = 0;
+        int count = 0;
+
+        while(start < end) {
+            char ch = text.charAt(start++);
+            int codePoint = ch;
+            if(Character.isHighSurrogate(ch) && start < end) {
+                char low = text.charAt(start);
+                if(Character.isLowSurrogate(low)) {
+                    codePoint = Character.toCodePoint(ch, low);
+                    start++;
+                }
+            }
+
+            int glyph = cmap.get(codePoint);
+            if(kerning && prevGlyph != 0 && glyph != 0) {
+                int value = font.getKerning26_6(prevGlyph, glyph, kernMode);
+                x += KerningTable.unpackX(value);
+                y += KerningTable.unpackY(value);
+            }
+
+            long metrics = advances.get(font, glyph);
+            if(hinting) {
+                x += hintingCorrection(prevRsbDelta, AdvanceCache.getLsbDelta(metrics));
+                prevRsbDelta = AdvanceCache.getRsbDelta(metrics);
+            }
+
+            if(outGlyphs != null) {
+                outGlyphs[count] = glyph;
+            }
+            if(outX != null) {
+                outX[count] = round26_6(x);
+            }
+            if(outY != null) {
+                outY[count] = round26_6(y);
+            }
+
+            x += AdvanceCache.getAdvance(metrics);
+            prevGlyph = glyph;
+            count++;
+        }
+
+        penX = round26_6(x);
+        penY = round26_6(y);
+        return count;
+    }
+
+    /**
+     * Computes the correction for hinted glyph positions in 26.6 format
+     */
+    private static int hintingCorrection(int prevRsbDelta, int lsbDelta) {
+        if(prevRsbDelta - lsbDelta > 32) {
+            return -64;
+        } else if(prevRsbDelta - lsbDelta < -32) {
+            return 64;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table which maps glyph pairs to kerning values.
+ * 
+ * <p>The x and y kerning are stored in 26.6 format as two 16 bit values
+ * packed into one int: {@code (x << 16) | (y & 0xFFFF)}.</p>
+ * 
+ * <p>Lookups don't allocate any objects.</p>
+ * 
+ * <p>Only pairs with kerning are stored in the table. Most pairs of a font
+ * have no kerning, these are remembered in a small direct mapped cache of
+ * {@link #ZERO_CACHE_SIZE} keys (32 KB) where a colliding pair replaces the
+ * previous one.</p>
+ * 
+ * <p>Each stored pair uses 12 bytes per slot and the table is at most half
+ * full, so a pair costs between 24 and 48 bytes. No more pairs are added
+ * once the table holds {@link #MAX_SIZE} pairs, which limits it to 384 KB.
+ * The pairs which are already stored are kept.</p>
+ *
+ * @author Matthias Mann
+ */
+final class KerningTable {
+
+    /**
+     * The maximum number of stored pairs with kerning.
+     */
+    static final int MAX_SIZE = 16384;
+
+    /**
+     * The number of entries of the cache for pairs without kerning.
+     */
+    static final int ZERO_CACHE_SIZE = 4096;
+
+    private static final long EMPTY = -1L;
+
+    private final long[] zeroKeys;
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    KerningTable() {
+        zeroKeys = new long[ZERO_CACHE_SIZE];
+        Arrays.fill(zeroKeys, EMPTY);
+        allocate(64);
+    }
+
+    static long key(int leftGlyph, int rightGlyph) {
+        return ((long)leftGlyph << 32) | (rightGlyph & 0xFFFFFFFFL);
+    }
+
+    static int pack(long x, long y) {
+        return (clamp16(x) << 16) | (clamp16(y) & 0xFFFF);
+    }
+
+    static int unpackX(int value) {
+        return value >> 16;
+    }
+
+    static int unpackY(int value) {
+        return (short)value;
+    }
+
+    /**
+     * Returns the number of stored pairs with kerning.
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size >= MAX_SIZE;
+    }
+
+    /**
+     * Checks if the pair is known to have no kerning.
+     */
+    boolean isZero(long key) {
+        return zeroKeys[hash(key) & (ZERO_CACHE_SIZE - 1)] == key;
+    }
+
+    /**
+     * Remembers a pair without kerning - replaces a colliding pair.
+     */
+    void putZero(long key) {
+        zeroKeys[hash(key) & (ZERO_CACHE_SIZE - 1)] = key;
+    }
+
+    /**
+     * Looks up a glyph pair.
+     * @return the slot index if found, or {@code -(insertionSlot + 1)}
+     */
+    int find(long key) {
+        int idx = hash(key) & mask;
+        for(;;) {
+            long k = keys[idx];
+            if(k == key) {
+                return idx;
+            }
+            if(k == EMPTY) {
+                return -(idx + 1);
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    int getValueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Stores a pair at the insertion slot returned by {@link #find(long) }.
+     * @return false if the table is full and the pair was not stored
+     */
+    boolean insertAt(int slot, long key, int value) {
+        if(size >= MAX_SIZE) {
+            return false;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if(++size * 2 > keys.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    void put(long key, int value) {
+        int slot = find(key);
+        if(slot >= 0) {
+            values[slot] = value;
+        } else {
+            insertAt(-(slot + 1), key, value);
+        }
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for(int i=0 ; i<oldKeys.length ; i++) {
+            long k = oldKeys[i];
+            if(k != EMPTY) {
+                int idx = hash(k) & mask;
+                while(keys[idx] != EMPTY) {
+                    idx = (idx + 1) & mask;
+                }
+                keys[idx] = k;
+                values[idx] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private static int clamp16(long value) {
+        return (int)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+}
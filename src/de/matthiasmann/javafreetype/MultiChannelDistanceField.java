@@ -0,0 +1,760 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Computes a multi channel signed distance field from a glyph outline.
+ * 
+ * <p>Follows the method described by Viktor Chlumsk&yacute; in "Shape
+ * Decomposition for Multi-channel Distance Fields": the edges are colored so
+ * that two edges meeting at a corner never share all channels, each channel
+ * stores the pseudo distance to the nearest edge of its color, and the
+ * median of the 3 channels reconstructs sharp corners.</p>
+ * 
+ * <p>Pixels where the median disagrees with the sign of the true distance
+ * are replaced by the true distance to avoid artifacts inside or outside of
+ * the glyph.</p>
+ * 
+ * <p>The output uses the same encoding as {@link SignedDistanceField}:
+ * 128 is the edge, larger values are inside.</p>
+ * 
+ * <p>Instances are not thread safe - use one per thread.</p>
+ *
+ * @author Matthias Mann
+ */
+final class MultiChannelDistanceField {
+
+    static final int BLACK   = 0;
+    static final int RED     = 1;
+    static final int GREEN   = 2;
+    static final int YELLOW  = 3;
+    static final int BLUE    = 4;
+    static final int MAGENTA = 5;
+    static final int CYAN    = 6;
+    static final int WHITE   = 7;
+
+    /**
+     * Edges meeting at an angle larger than this (in radians) form a corner
+     */
+    private static final double ANGLE_THRESHOLD = 3.0;
+
+    /**
+     * A shape made of closed contours of line, quadratic and cubic edges.
+     * The number of points of an edge is stored as edge type.
+     */
+    static final class Shape implements FreeTypeOutlineSink {
+        int numEdges;
+        byte[] types = new byte[32];
+        byte[] colors = new byte[32];
+        double[] points = new double[32*8];
+        int numContours;
+        int[] contourEnds = new int[8];
+
+        private double startX;
+        private double startY;
+        private double curX;
+        private double curY;
+        private boolean open;
+        private double[] splitScratch;
+
+        void reset() {
+            numEdges = 0;
+            numContours = 0;
+            open = false;
+        }
+
+        boolean isEmpty() {
+            return numEdges == 0;
+        }
+
+        public void moveTo(float x, float y) {
+            close();
+            startX = curX = x;
+            startY = curY = y;
+            open = true;
+        }
+
+        public void lineTo(float x, float y) {
+            lineTo((double)x, (double)y);
+        }
+
+        private void lineTo(double x, double y) {
+            if(x != curX || y != curY) {
+                int o = addEdge(2);
+                points[o+2] = x;
+                points[o+3] = y;
+                curX = x;
+                curY = y;
+            }
+        }
+
+        public void quadTo(float cx, float cy, float x, float y) {
+            int o = addEdge(3);
+            points[o+2] = cx;
+            points[o+3] = cy;
+            points[o+4] = x;
+            points[o+5] = y;
+            curX = x;
+            curY = y;
+        }
+
+        public void cubicTo(float c1x, float c1y, float c2x, float c2y, float x, float y) {
+            int o = addEdge(4);
+            points[o+2] = c1x;
+            points[o+3] = c1y;
+            points[o+4] = c2x;
+            points[o+5] = c2y;
+            points[o+6] = x;
+            points[o+7] = y;
+            curX = x;
+            curY = y;
+        }
+
+        public void close() {
+            if(!open) {
+                return;
+            }
+            lineTo(startX, startY);
+            open = false;
+
+            int first = (numContours > 0) ? contourEnds[numContours-1] : 0;
+            if(numEdges == first) {
+                return;
+            }
+            if(numEdges - first < 3) {
+                // edge coloring needs at least 3 edges for a single corner
+                splitEdgesInThirds(first);
+            }
+            if(numContours == contourEnds.length) {
+                contourEnds = grow(contourEnds);
+            }
+            contourEnds[numContours++] = numEdges;
+        }
+
+        private int addEdge(int type) {
+            if(numEdges == types.length) {
+                types = grow(types);
+                colors = grow(colors);
+                double[] tmp = new double[points.length * 2];
+                System.arraycopy(points, 0, tmp, 0, points.length);
+                points = tmp;
+            }
+            int o = numEdges * 8;
+            types[numEdges] = (byte)type;
+            colors[numEdges] = WHITE;
+            points[o  ] = curX;
+            points[o+1] = curY;
+            numEdges++;
+            return o;
+        }
+
+        private void splitEdgesInThirds(int first) {
+            int count = numEdges - first;
+            if(splitScratch == null) {
+                splitScratch = new double[3*8 + 2*8];
+            }
+            double[] src = new double[count*8];
+            byte[] srcTypes = new byte[count];
+            System.arraycopy(points, first*8, src, 0, count*8);
+            System.arraycopy(types, first, srcTypes, 0, count);
+            numEdges = first;
+
+            double[] s = splitScratch;
+            for(int i=0 ; i<count ; i++) {
+                int n = srcTypes[i];
+                // [0..7] first third, [8..15] rest, then split the rest in half
+                split(n, src, i*8, 1.0/3.0, s, 0, s, 8);
+                split(n, s, 8, 0.5, s, 16, s, 24);
+                addEdgeCopy(n, s, 0);
+                addEdgeCopy(n, s, 16);
+                addEdgeCopy(n, s, 24);
+            }
+        }
+
+        private void addEdgeCopy(int n, double[] src, int srcOff) {
+            int o = addEdge(n);
+            System.arraycopy(src, srcOff, points, o, n*2);
+        }
+
+        /**
+         * Returns the signed area of the control polygons. Positive means
+         * the outer contours are counter clockwise.
+         */
+        double computeArea() {
+            double area = 0;
+            for(int e=0 ; e<numEdges ; e++) {
+                int o = e*8;
+                for(int i=0,n=types[e]-1 ; i<n ; i++,o+=2) {
+                    area += points[o]*points[o+3] - points[o+2]*points[o+1];
+                }
+            }
+            return area * 0.5;
+        }
+
+        /**
+         * Computes the control box.
+         * @param bounds receives minX, minY, maxX, maxY
+         */
+        void computeBounds(double[] bounds) {
+            double minX = Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE;
+            double maxY = -Double.MAX_VALUE;
+            for(int e=0 ; e<numEdges ; e++) {
+                for(int i=0,o=e*8,n=types[e] ; i<n ; i++,o+=2) {
+                    minX = Math.min(minX, points[o]);
+                    minY = Math.min(minY, points[o+1]);
+                    maxX = Math.max(maxX, points[o]);
+                    maxY = Math.max(maxY, points[o+1]);
+                }
+            }
+            bounds[0] = minX;
+            bounds[1] = minY;
+            bounds[2] = maxX;
+            bounds[3] = maxY;
+        }
+
+        /**
+         * Assigns edge colors. Edges between corners share a color, and
+         * consecutive color runs differ in at least one channel.
+         */
+        void colorEdges() {
+            final double crossThreshold = Math.sin(ANGLE_THRESHOLD);
+            final double[] dir = new double[4];
+            int[] corners = new int[8];
+            int seed = 0;
+
+            for(int c=0,first=0 ; c<numContours ; first=contourEnds[c++]) {
+                final int end = contourEnds[c];
+                final int m = end - first;
+                int numCorners = 0;
+
+                direction(end-1, 1, dir, 0);
+                for(int i=0 ; i<m ; i++) {
+                    direction(first+i, 0, dir, 2);
+                    if(isCorner(dir, crossThreshold)) {
+                        if(numCorners == corners.length) {
+                            corners = grow(corners);
+                        }
+                        corners[numCorners++] = i;
+                    }
+                    direction(first+i, 1, dir, 0);
+                }
+
+                if(numCorners == 0) {
+                    for(int i=first ; i<end ; i++) {
+                        colors[i] = WHITE;
+                    }
+                } else if(numCorners == 1) {
+                    // teardrop: 3 color runs around the single corner
+                    int c0 = switchColor(WHITE, BLACK, seed);
+                    seed = nextSeed(WHITE, BLACK, seed);
+                    int c2 = switchColor(c0, BLACK, seed);
+                    seed = nextSeed(c0, BLACK, seed);
+                    int corner = corners[0];
+                    for(int i=0 ; i<m ; i++) {
+                        int run = (int)(3 + 2.875*i/(m-1) - 1.4375 + 0.5) - 3;
+                        colors[first + (corner+i) % m] = (byte)((run < 0) ? c0 : (run > 0) ? c2 : WHITE);
+                    }
+                } else {
+                    int spline = 0;
+                    int start = corners[0];
+                    int color = switchColor(WHITE, BLACK, seed);
+                    seed = nextSeed(WHITE, BLACK, seed);
+                    final int initialColor = color;
+                    for(int i=0 ; i<m ; i++) {
+                        int index = (start+i) % m;
+                        if(spline+1 < numCorners && corners[spline+1] == index) {
+                            spline++;
+                            int banned = (spline == numCorners-1) ? initialColor : BLACK;
+                            int next = switchColor(color, banned, seed);
+                            seed = nextSeed(color, banned, seed);
+                            color = next;
+                        }
+                        colors[first + index] = (byte)color;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Computes the unnormalized direction at the start (t=0) or end (t=1)
+         * of an edge. Degenerated control points are skipped.
+         */
+        void direction(int e, int t, double[] dst, int dstOff) {
+            final int n = types[e];
+            final int o = e*8;
+            double dx, dy;
+            if(t == 0) {
+                int i = 1;
+                do {
+                    dx = points[o+i*2  ] - points[o];
+                    dy = points[o+i*2+1] - points[o+1];
+                } while(dx == 0 && dy == 0 && ++i < n);
+            } else {
+                final int last = o + (n-1)*2;
+                int i = n-2;
+                do {
+                    dx = points[last  ] - points[o+i*2];
+                    dy = points[last+1] - points[o+i*2+1];
+                } while(dx == 0 && dy == 0 && --i >= 0);
+            }
+            dst[dstOff  ] = dx;
+            dst[dstOff+1] = dy;
+        }
+    }
+
+    private final double[] dir = new double[2];
+    private final double[] roots = new double[3];
+    private byte[] row;
+
+    // result of signedDistance()
+    private double sdDistance;
+    private double sdDot;
+    private double sdParam;
+
+    /**
+     * Computes the distance field.
+     * 
+     * @param shape the colored shape in pixel units, Y axis up
+     * @param left the shape X coordinate of the left pixel edge
+     * @param top the shape Y coordinate of the top pixel edge
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param range the distance in pixels which is mapped to 0 and 255
+     * @param dst receives 3 bytes (R, G, B) per pixel
+     * @param dstOff the offset of the top left pixel
+     * @param stride the offset between rows in bytes
+     */
+    void generate(Shape shape, double left, double top, int width, int height,
+            int range, ByteBuffer dst, int dstOff, int stride) {
+        if(row == null || row.length < width*3) {
+            row = new byte[width*3];
+        }
+
+        // make positive distances inside regardless of the contour orientation
+        final double orientation = (shape.computeArea() > 0) ? -1 : 1;
+        final double scale = 128.0 / range;
+        final int numEdges = shape.numEdges;
+        final byte[] colors = shape.colors;
+        final ByteBuffer out = dst.duplicate();
+
+        for(int y=0 ; y<height ; y++) {
+            final double oy = top - y - 0.5;
+            for(int x=0 ; x<width ; x++) {
+                final double ox = left + x + 0.5;
+
+                double tDist = Double.MAX_VALUE, tDot = 0;
+                double rDist = Double.MAX_VALUE, rDot = 0, rParam = 0;
+                double gDist = Double.MAX_VALUE, gDot = 0, gParam = 0;
+                double bDist = Double.MAX_VALUE, bDot = 0, bParam = 0;
+                int rEdge = -1, gEdge = -1, bEdge = -1;
+
+                for(int e=0 ; e<numEdges ; e++) {
+                    signedDistance(shape, e, ox, oy);
+                    final double d = sdDistance;
+                    final double dot = sdDot;
+                    if(isCloser(d, dot, tDist, tDot)) {
+                        tDist = d;
+                        tDot = dot;
+                    }
+                    final int color = colors[e];
+                    if((color & RED) != 0 && isCloser(d, dot, rDist, rDot)) {
+                        rDist = d;
+                        rDot = dot;
+                        rParam = sdParam;
+                        rEdge = e;
+                    }
+                    if((color & GREEN) != 0 && isCloser(d, dot, gDist, gDot)) {
+                        gDist = d;
+                        gDot = dot;
+                        gParam = sdParam;
+                        gEdge = e;
+                    }
+                    if((color & BLUE) != 0 && isCloser(d, dot, bDist, bDot)) {
+                        bDist = d;
+                        bDot = dot;
+                        bParam = sdParam;
+                        bEdge = e;
+                    }
+                }
+
+                tDist *= orientation;
+                double r = (rEdge >= 0) ? pseudoDistance(shape, rEdge, rDist, rParam, ox, oy) * orientation : tDist;
+                double g = (gEdge >= 0) ? pseudoDistance(shape, gEdge, gDist, gParam, ox, oy) * orientation : tDist;
+                double b = (bEdge >= 0) ? pseudoDistance(shape, bEdge, bDist, bParam, ox, oy) * orientation : tDist;
+
+                if((median(r, g, b) > 0) != (tDist > 0)) {
+                    r = g = b = tDist;
+                }
+
+                row[x*3  ] = encode(r, scale);
+                row[x*3+1] = encode(g, scale);
+                row[x*3+2] = encode(b, scale);
+            }
+            out.position(dstOff + y*stride);
+            out.put(row, 0, width*3);
+        }
+    }
+
+    private static byte encode(double dist, double scale) {
+        long value = Math.round(128 + dist * scale);
+        return (byte)Math.max(0, Math.min(255, value));
+    }
+
+    private static double median(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static boolean isCloser(double d, double dot, double refD, double refDot) {
+        double ad = Math.abs(d);
+        double ar = Math.abs(refD);
+        return ad < ar || (ad == ar && dot < refDot);
+    }
+
+    /**
+     * Computes the signed distance from the origin to an edge into
+     * sdDistance, sdDot and sdParam. The dot product is used to resolve
+     * ties at shared end points.
+     */
+    private void signedDistance(Shape shape, int e, double ox, double oy) {
+        final double[] p = shape.points;
+        final int o = e*8;
+        switch(shape.types[e]) {
+            case 2: linearDistance(p, o, ox, oy); break;
+            case 3: quadraticDistance(shape, e, p, o, ox, oy); break;
+            default: cubicDistance(shape, e, p, o, ox, oy); break;
+        }
+    }
+
+    private void linearDistance(double[] p, int o, double ox, double oy) {
+        double aqx = ox - p[o], aqy = oy - p[o+1];
+        double abx = p[o+2] - p[o], aby = p[o+3] - p[o+1];
+        double param = (aqx*abx + aqy*aby) / (abx*abx + aby*aby);
+        int end = (param > 0.5) ? o+2 : o;
+        double eqx = p[end] - ox, eqy = p[end+1] - oy;
+        double endpointDistance = Math.sqrt(eqx*eqx + eqy*eqy);
+        sdParam = param;
+        if(param > 0 && param < 1) {
+            double len = Math.sqrt(abx*abx + aby*aby);
+            double orthoDistance = (aby*aqx - abx*aqy) / len;
+            if(Math.abs(orthoDistance) < endpointDistance) {
+                sdDistance = orthoDistance;
+                sdDot = 0;
+                return;
+            }
+        }
+        sdDistance = nonZeroSign(aqx*aby - aqy*abx) * endpointDistance;
+        sdDot = Math.abs(normalizedDot(abx, aby, eqx, eqy));
+    }
+
+    private void quadraticDistance(Shape shape, int e, double[] p, int o, double ox, double oy) {
+        double qax = p[o] - ox, qay = p[o+1] - oy;
+        double abx = p[o+2] - p[o], aby = p[o+3] - p[o+1];
+        double brx = p[o+4] - p[o+2] - abx, bry = p[o+5] - p[o+3] - aby;
+        double a = brx*brx + bry*bry;
+        double b = 3 * (abx*brx + aby*bry);
+        double c = 2 * (abx*abx + aby*aby) + (qax*brx + qay*bry);
+        double d = qax*abx + qay*aby;
+        int solutions = solveCubic(roots, a, b, c, d);
+
+        shape.direction(e, 0, dir, 0);
+        double minDistance = nonZeroSign(dir[0]*qay - dir[1]*qax) * Math.sqrt(qax*qax + qay*qay);
+        double param = -(qax*dir[0] + qay*dir[1]) / (dir[0]*dir[0] + dir[1]*dir[1]);
+
+        shape.direction(e, 1, dir, 0);
+        double bqx = p[o+4] - ox, bqy = p[o+5] - oy;
+        double distance = Math.sqrt(bqx*bqx + bqy*bqy);
+        if(distance < Math.abs(minDistance)) {
+            minDistance = nonZeroSign(dir[0]*bqy - dir[1]*bqx) * distance;
+            param = ((ox - p[o+2])*dir[0] + (oy - p[o+3])*dir[1]) / (dir[0]*dir[0] + dir[1]*dir[1]);
+        }
+
+        for(int i=0 ; i<solutions ; i++) {
+            double t = roots[i];
+            if(t > 0 && t < 1) {
+                double qex = qax + 2*t*abx + t*t*brx;
+                double qey = qay + 2*t*aby + t*t*bry;
+                distance = Math.sqrt(qex*qex + qey*qey);
+                if(distance <= Math.abs(minDistance)) {
+                    double tx = abx + t*brx, ty = aby + t*bry;
+                    minDistance = nonZeroSign(tx*qey - ty*qex) * distance;
+                    param = t;
+                }
+            }
+        }
+
+        finishCurveDistance(shape, e, minDistance, param, qax, qay, bqx, bqy);
+    }
+
+    private static final int CUBIC_SEARCH_STARTS = 4;
+    private static final int CUBIC_SEARCH_STEPS = 4;
+
+    private void cubicDistance(Shape shape, int e, double[] p, int o, double ox, double oy) {
+        double qax = p[o] - ox, qay = p[o+1] - oy;
+        double abx = p[o+2] - p[o], aby = p[o+3] - p[o+1];
+        double brx = p[o+4] - p[o+2] - abx, bry = p[o+5] - p[o+3] - aby;
+        double asx = (p[o+6] - p[o+4]) - (p[o+4] - p[o+2]) - brx;
+        double asy = (p[o+7] - p[o+5]) - (p[o+5] - p[o+3]) - bry;
+
+        shape.direction(e, 0, dir, 0);
+        double minDistance = nonZeroSign(dir[0]*qay - dir[1]*qax) * Math.sqrt(qax*qax + qay*qay);
+        double param = -(qax*dir[0] + qay*dir[1]) / (dir[0]*dir[0] + dir[1]*dir[1]);
+
+        shape.direction(e, 1, dir, 0);
+        double bqx = p[o+6] - ox, bqy = p[o+7] - oy;
+        double distance = Math.sqrt(bqx*bqx + bqy*bqy);
+        if(distance < Math.abs(minDistance)) {
+            minDistance = nonZeroSign(dir[0]*bqy - dir[1]*bqx) * distance;
+            param = ((dir[0] - bqx)*dir[0] + (dir[1] - bqy)*dir[1]) / (dir[0]*dir[0] + dir[1]*dir[1]);
+        }
+
+        // Newton iterations from several start points
+        for(int i=0 ; i<=CUBIC_SEARCH_STARTS ; i++) {
+            double t = (double)i / CUBIC_SEARCH_STARTS;
+            double qex = qax + 3*t*abx + 3*t*t*brx + t*t*t*asx;
+            double qey = qay + 3*t*aby + 3*t*t*bry + t*t*t*asy;
+            for(int step=0 ; step<CUBIC_SEARCH_STEPS ; step++) {
+                double d1x = 3*abx + 6*t*brx + 3*t*t*asx;
+                double d1y = 3*aby + 6*t*bry + 3*t*t*asy;
+                double d2x = 6*brx + 6*t*asx;
+                double d2y = 6*bry + 6*t*asy;
+                t -= (qex*d1x + qey*d1y) / (d1x*d1x + d1y*d1y + qex*d2x + qey*d2y);
+                if(t <= 0 || t >= 1) {
+                    break;
+                }
+                qex = qax + 3*t*abx + 3*t*t*brx + t*t*t*asx;
+                qey = qay + 3*t*aby + 3*t*t*bry + t*t*t*asy;
+                distance = Math.sqrt(qex*qex + qey*qey);
+                if(distance < Math.abs(minDistance)) {
+                    minDistance = nonZeroSign(d1x*qey - d1y*qex) * distance;
+                    param = t;
+                }
+            }
+        }
+
+        finishCurveDistance(shape, e, minDistance, param, qax, qay, bqx, bqy);
+    }
+
+    private void finishCurveDistance(Shape shape, int e, double minDistance, double param,
+            double qax, double qay, double bqx, double bqy) {
+        sdDistance = minDistance;
+        sdParam = param;
+        if(param >= 0 && param <= 1) {
+            sdDot = 0;
+        } else if(param < 0.5) {
+            shape.direction(e, 0, dir, 0);
+            sdDot = Math.abs(normalizedDot(dir[0], dir[1], qax, qay));
+        } else {
+            shape.direction(e, 1, dir, 0);
+            sdDot = Math.abs(normalizedDot(dir[0], dir[1], bqx, bqy));
+        }
+    }
+
+    /**
+     * Extends the edge beyond its end points along the end tangents. This
+     * keeps corners sharp in the combined field.
+     */
+    private double pseudoDistance(Shape shape, int e, double distance, double param, double ox, double oy) {
+        final double[] p = shape.points;
+        final int o = e*8;
+        if(param < 0) {
+            shape.direction(e, 0, dir, 0);
+            double len = Math.sqrt(dir[0]*dir[0] + dir[1]*dir[1]);
+            double dx = dir[0] / len, dy = dir[1] / len;
+            double aqx = ox - p[o], aqy = oy - p[o+1];
+            if(aqx*dx + aqy*dy < 0) {
+                double pseudo = aqx*dy - aqy*dx;
+                if(Math.abs(pseudo) <= Math.abs(distance)) {
+                    return pseudo;
+                }
+            }
+        } else if(param > 1) {
+            shape.direction(e, 1, dir, 0);
+            double len = Math.sqrt(dir[0]*dir[0] + dir[1]*dir[1]);
+            double dx = dir[0] / len, dy = dir[1] / len;
+            int last = o + (shape.types[e]-1)*2;
+            double bqx = ox - p[last], bqy = oy - p[last+1];
+            if(bqx*dx + bqy*dy > 0) {
+                double pseudo = bqx*dy - bqy*dx;
+                if(Math.abs(pseudo) <= Math.abs(distance)) {
+                    return pseudo;
+                }
+            }
+        }
+        return distance;
+    }
+
+    private static double nonZeroSign(double v) {
+        return (v > 0) ? 1 : -1;
+    }
+
+    private static double normalizedDot(double ax, double ay, double bx, double by) {
+        double la = Math.sqrt(ax*ax + ay*ay);
+        double lb = Math.sqrt(bx*bx + by*by);
+        if(la == 0 || lb == 0) {
+            return 0;
+        }
+        return (ax*bx + ay*by) / (la*lb);
+    }
+
+    static boolean isCorner(double[] dir, double crossThreshold) {
+        double ax = dir[0], ay = dir[1], bx = dir[2], by = dir[3];
+        double la = Math.sqrt(ax*ax + ay*ay);
+        double lb = Math.sqrt(bx*bx + by*by);
+        if(la == 0 || lb == 0) {
+            return false;
+        }
+        double dot = (ax*bx + ay*by) / (la*lb);
+        double cross = (ax*by - ay*bx) / (la*lb);
+        return dot <= 0 || Math.abs(cross) > crossThreshold;
+    }
+
+    static int switchColor(int color, int banned, int seed) {
+        int combined = color & banned;
+        if(combined == RED || combined == GREEN || combined == BLUE) {
+            return combined ^ WHITE;
+        }
+        if(color == BLACK || color == WHITE) {
+            switch(seed % 3) {
+                case 0: return CYAN;
+                case 1: return MAGENTA;
+                default: return YELLOW;
+            }
+        }
+        int shifted = color << (1 + (seed & 1));
+        return (shifted | (shifted >> 3)) & WHITE;
+    }
+
+    static int nextSeed(int color, int banned, int seed) {
+        int combined = color & banned;
+        if(combined == RED || combined == GREEN || combined == BLUE) {
+            return seed;
+        }
+        if(color == BLACK || color == WHITE) {
+            return seed / 3;
+        }
+        return seed >> 1;
+    }
+
+    static int solveCubic(double[] x, double a, double b, double c, double d) {
+        if(a != 0) {
+            double bn = b / a;
+            if(Math.abs(bn) < 1e6) {
+                return solveCubicNormed(x, bn, c / a, d / a);
+            }
+        }
+        return solveQuadratic(x, b, c, d);
+    }
+
+    private static int solveQuadratic(double[] x, double a, double b, double c) {
+        if(a == 0 || Math.abs(b) > 1e12 * Math.abs(a)) {
+            if(b == 0) {
+                return 0;
+            }
+            x[0] = -c / b;
+            return 1;
+        }
+        double dscr = b*b - 4*a*c;
+        if(dscr > 0) {
+            dscr = Math.sqrt(dscr);
+            x[0] = (-b + dscr) / (2*a);
+            x[1] = (-b - dscr) / (2*a);
+            return 2;
+        } else if(dscr == 0) {
+            x[0] = -b / (2*a);
+            return 1;
+        }
+        return 0;
+    }
+
+    private static int solveCubicNormed(double[] x, double a, double b, double c) {
+        double a2 = a*a;
+        double q = (a2 - 3*b) / 9;
+        double r = (a*(2*a2 - 9*b) + 27*c) / 54;
+        double r2 = r*r;
+        double q3 = q*q*q;
+        a /= 3;
+        if(r2 < q3) {
+            double t = r / Math.sqrt(q3);
+            t = Math.acos(Math.max(-1, Math.min(1, t)));
+            q = -2 * Math.sqrt(q);
+            x[0] = q * Math.cos(t / 3) - a;
+            x[1] = q * Math.cos((t + 2*Math.PI) / 3) - a;
+            x[2] = q * Math.cos((t - 2*Math.PI) / 3) - a;
+            return 3;
+        }
+        double u = ((r < 0) ? 1 : -1) * Math.pow(Math.abs(r) + Math.sqrt(r2 - q3), 1.0/3.0);
+        double v = (u == 0) ? 0 : q / u;
+        x[0] = (u + v) - a;
+        if(u == v || Math.abs(u - v) < 1e-12 * Math.abs(u + v)) {
+            x[1] = -0.5 * (u + v) - a;
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Splits a bezier curve with n points at t using de Casteljau's algorithm.
+     */
+    static void split(int n, double[] src, int srcOff, double t,
+            double[] left, int leftOff, double[] right, int rightOff) {
+        double[] w = new double[8];
+        System.arraycopy(src, srcOff, w, 0, n*2);
+        left[leftOff] = w[0];
+        left[leftOff+1] = w[1];
+        right[rightOff + (n-1)*2] = w[(n-1)*2];
+        right[rightOff + (n-1)*2 + 1] = w[(n-1)*2 + 1];
+        for(int level=1 ; level<n ; level++) {
+            for(int i=0 ; i<n-level ; i++) {
+                w[i*2  ] += (w[i*2+2] - w[i*2  ]) * t;
+                w[i*2+1] += (w[i*2+3] - w[i*2+1]) * t;
+            }
+            left[leftOff + level*2] = w[0];
+            left[leftOff + level*2 + 1] = w[1];
+            right[rightOff + (n-1-level)*2] = w[(n-1-level)*2];
+            right[rightOff + (n-1-level)*2 + 1] = w[(n-1-level)*2 + 1];
+        }
+    }
+
+    static int[] grow(int[] a) {
+        int[] tmp = new int[a.length * 2];
+        System.arraycopy(a, 0, tmp, 0, a.length);
+        return tmp;
+    }
+
+    static byte[] grow(byte[] a) {
+        byte[] tmp = new byte[a.length * 2];
+        System.arraycopy(a, 0, tmp, 0, a.length);
+        return tmp;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.nio.ByteBuffer;
+
+import static de.matthiasmann.javafreetype.FT2Library.*;
+
+/**
+ * Converts rows of MONO, GRAY, GRAY2 and GRAY4 bitmaps to 8 bit coverage
+ * or ARGB. The coverage of BGRA color bitmaps is their alpha channel.
+ * 
+ * <p>Packed modes are expanded with lookup tables which map one source byte
+ * to all of its pixels, so the inner loops only do a table copy per byte.
+ * GRAY2 and GRAY4 are produced by embedded bitmap strikes.</p>
+ * 
+ * <p>All methods are allocation free.</p>
+ *
+ * @author Matthias Mann
+ */
+final class PixelModeConverter {
+
+    /** 8 coverage values for each MONO byte */
+    private static final byte[] MONO_TABLE = new byte[256 * 8];
+    /** 4 coverage values for each GRAY2 byte */
+    private static final byte[] GRAY2_TABLE = new byte[256 * 4];
+    /** 2 coverage values for each GRAY4 byte */
+    private static final byte[] GRAY4_TABLE = new byte[256 * 2];
+
+    static {
+        for(int b=0 ; b<256 ; b++) {
+            for(int i=0 ; i<8 ; i++) {
+                MONO_TABLE[b*8 + i] = (byte)(((b >> (7-i)) & 1) * 255);
+            }
+            for(int i=0 ; i<4 ; i++) {
+                GRAY2_TABLE[b*4 + i] = (byte)(((b >> (6-i*2)) & 3) * 85);
+            }
+            for(int i=0 ; i<2 ; i++) {
+                GRAY4_TABLE[b*2 + i] = (byte)(((b >> (4-i*4)) & 15) * 17);
+            }
+        }
+    }
+
+    private PixelModeConverter() {
+    }
+
+    /**
+     * Checks if the pixel mode can be converted to coverage.
+     */
+    static boolean isSupported(int pixelMode) {
+        switch(pixelMode) {
+            case FT_PIXEL_MODE_MONO:
+            case FT_PIXEL_MODE_GRAY:
+            case FT_PIXEL_MODE_GRAY2:
+            case FT_PIXEL_MODE_GRAY4:
+            case FT_PIXEL_MODE_BGRA:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Converts one bitmap row to 8 bit coverage.
+     * 
+     * @param src the bitmap buffer
+     * @param srcOff the offset of the row in src
+     * @param pixelMode the pixel mode of the bitmap
+     * @param numGrays the number of gray levels of GRAY bitmaps
+     * @param width the number of pixels
+     * @param dst the destination array
+     * @param dstOff the offset of the first pixel in dst
+     * @return false if the pixel mode is not supported
+     */
+    static boolean toCoverage(ByteBuffer src, int srcOff, int pixelMode, int numGrays,
+            int width, byte[] dst, int dstOff) {
+        switch(pixelMode) {
+            case FT_PIXEL_MODE_GRAY:
+                src.position(srcOff);
+                src.get(dst, dstOff, width);
+                if(numGrays != 256 && numGrays > 1) {
+                    final int max = numGrays - 1;
+                    for(int i=0 ; i<width ; i++) {
+                        dst[dstOff+i] = (byte)(Math.min(max, dst[dstOff+i] & 255) * 255 / max);
+                    }
+                }
+                return true;
+
+            case FT_PIXEL_MODE_MONO:
+                expand(src, srcOff, MONO_TABLE, 3, width, dst, dstOff);
+                return true;
+
+            case FT_PIXEL_MODE_GRAY2:
+                expand(src, srcOff, GRAY2_TABLE, 2, width, dst, dstOff);
+                return true;
+
+            case FT_PIXEL_MODE_GRAY4:
+                expand(src, srcOff, GRAY4_TABLE, 1, width, dst, dstOff);
+                return true;
+
+            case FT_PIXEL_MODE_BGRA:
+                for(int i=0 ; i<width ; i++) {
+                    dst[dstOff+i] = src.get(srcOff + i*4 + 3);
+                }
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Converts one bitmap row to non premultiplied ARGB with the coverage as alpha.
+     * 
+     * @param rgb the color in the lower 24 bits
+     * @see #toCoverage(java.nio.ByteBuffer, int, int, int, int, byte[], int) 
+     */
+    static boolean toARGB(ByteBuffer src, int srcOff, int pixelMode, int numGrays,
+            int width, int[] dst, int dstOff, int rgb) {
+        rgb &= 0xFFFFFF;
+        switch(pixelMode) {
+            case FT_PIXEL_MODE_GRAY:
+                if(numGrays == 256) {
+                    for(int i=0 ; i<width ; i++) {
+                        dst[dstOff+i] = rgb | (src.get(srcOff+i) << 24);
+                    }
+                } else {
+                    final int max = Math.max(1, numGrays - 1);
+                    for(int i=0 ; i<width ; i++) {
+                        int value = Math.min(max, src.get(srcOff+i) & 255) * 255 / max;
+                        dst[dstOff+i] = rgb | (value << 24);
+                    }
+                }
+                return true;
+
+            case FT_PIXEL_MODE_MONO:
+                expandARGB(src, srcOff, MONO_TABLE, 3, width, dst, dstOff, rgb);
+                return true;
+
+            case FT_PIXEL_MODE_GRAY2:
+                expandARGB(src, srcOff, GRAY2_TABLE, 2, width, dst, dstOff, rgb);
+                return true;
+
+            case FT_PIXEL_MODE_GRAY4:
+                expandARGB(src, srcOff, GRAY4_TABLE, 1, width, dst, dstOff, rgb);
+                return true;
+
+            case FT_PIXEL_MODE_BGRA:
+                for(int i=0 ; i<width ; i++) {
+                    dst[dstOff+i] = rgb | (src.get(srcOff + i*4 + 3) << 24);
+                }
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param shift log2 of the number of pixels per source byte
+     */
+    private static void expand(ByteBuffer src, int srcOff, byte[] table, int shift,
+            int width, byte[] dst, int dstOff) {
+        final int perByte = 1 << shift;
+        final int full = width >> shift;
+        for(int i=0 ; i<full ; i++,dstOff+=perByte) {
+            System.arraycopy(table, (src.get(srcOff+i) & 255) << shift, dst, dstOff, perByte);
+        }
+        final int rest = width & (perByte-1);
+        if(rest > 0) {
+            System.arraycopy(table, (src.get(srcOff+full) & 255) << shift, dst, dstOff, rest);
+        }
+    }
+
+    private static void expandARGB(ByteBuffer src, int srcOff, byte[] table, int shift,
+            int width, int[] dst, int dstOff, int rgb) {
+        final int perByte = 1 << shift;
+        for(int x=0 ; x<width ; x+=perByte) {
+            int tableOff = (src.get(srcOff + (x >> shift)) & 255) << shift;
+            for(int i=0,n=Math.min(perByte, width-x) ; i<n ; i++) {
+                dst[dstOff + x + i] = rgb | (table[tableOff + i] << 24);
+            }
+        }
+    }
+}
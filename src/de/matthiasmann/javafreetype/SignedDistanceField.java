@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.javafreetype;
+
+import java.util.Arrays;
+
+/**
+ * Computes a signed distance field from an 8 bit coverage bitmap.
+ * 
+ * <p>Uses the exact euclidean distance transform by Felzenszwalb and
+ * Huttenlocher. Anti aliased edge pixels are treated as partially covered
+ * which gives sub pixel accurate edges.</p>
+ * 
+ * <p>The output uses 128 for the glyph edge, larger values inside and
+ * smaller values outside of the glyph. A value of 0 or 255 corresponds to
+ * a distance of {@code spread} pixels.</p>
+ *
+ * @author Matthias Mann
+ */
+final class SignedDistanceField {
+
+    private static final float INF = 1e20f;
+
+    private final float[] outer;
+    private final float[] inner;
+    private final float[] f;
+    private final float[] d;
+    private final float[] z;
+    private final int[] v;
+
+    /**
+     * Creates a generator for bitmaps of up to the specified size
+     * including the spread.
+     */
+    SignedDistanceField(int width, int height) {
+        this.outer = new float[width * height];
+        this.inner = new float[width * height];
+        int n = Math.max(width, height);
+        this.f = new float[n];
+        this.d = new float[n];
+        this.z = new float[n + 1];
+        this.v = new int[n];
+    }
+
+    /**
+     * Computes the distance field.
+     * 
+     * @param coverage the coverage bitmap with a stride of {@code srcWidth}
+     * @param srcWidth the width of the coverage bitmap
+     * @param srcHeight the height of the coverage bitmap
+     * @param spread the distance in pixels which is mapped to 0 and 255
+     * @return the distance field with a size of {@code (srcWidth+2*spread) * (srcHeight+2*spread)}
+     */
+    static byte[] generate(byte[] coverage, int srcWidth, int srcHeight, int spread) {
+        int w = srcWidth + 2*spread;
+        int h = srcHeight + 2*spread;
+        return new SignedDistanceField(w, h).compute(coverage, srcWidth, srcHeight, spread);
+    }
+
+    private byte[] compute(byte[] coverage, int srcWidth, int srcHeight, int spread) {
+        final int w = srcWidth + 2*spread;
+        final int h = srcHeight + 2*spread;
+
+        Arrays.fill(outer, 0, w*h, INF);
+        Arrays.fill(inner, 0, w*h, 0);
+
+        for(int y=0 ; y<srcHeight ; y++) {
+            for(int x=0 ; x<srcWidth ; x++) {
+                int a = coverage[y*srcWidth + x] & 255;
+                if(a == 0) {
+                    continue;
+                }
+                int idx = (y + spread) * w + x + spread;
+                if(a == 255) {
+                    outer[idx] = 0;
+                    inner[idx] = INF;
+                } else {
+                    float c = a / 255f;
+                    float dOut = Math.max(0, 0.5f - c);
+                    float dIn = Math.max(0, c - 0.5f);
+                    outer[idx] = dOut * dOut;
+                    inner[idx] = dIn * dIn;
+                }
+            }
+        }
+
+        edt(outer, w, h);
+        edt(inner, w, h);
+
+        final byte[] result = new byte[w * h];
+        final float scale = 128f / spread;
+        for(int i=0,n=w*h ; i<n ; i++) {
+            float dist = (float)(Math.sqrt(outer[i]) - Math.sqrt(inner[i]));
+            int value = Math.round(128 - dist * scale);
+            result[i] = (byte)Math.max(0, Math.min(255, value));
+        }
+        return result;
+    }
+
+    private void edt(float[] grid, int w, int h) {
+        for(int x=0 ; x<w ; x++) {
+            edt1d(grid, x, w, h);
+        }
+        for(int y=0 ; y<h ; y++) {
+            edt1d(grid, y*w, 1, w);
+        }
+    }
+
+    /**
+     * 1D squared distance transform using the lower envelope of parabolas
+     */
+    private void edt1d(float[] grid, int offset, int stride, int n) {
+        for(int q=0 ; q<n ; q++) {
+            f[q] = grid[offset + q*stride];
+        }
+
+        int k = 0;
+        v[0] = 0;
+        z[0] = -INF;
+        z[1] = INF;
+
+        for(int q=1 ; q<n ; q++) {
+            float s;
+            do {
+                int r = v[k];
+                s = (f[q] - f[r] + q*q - r*r) / (2*q - 2*r);
+            } while(s <= z[k] && --k >= 0);
+
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k+1] = INF;
+        }
+
+        k = 0;
+        for(int q=0 ; q<n ; q++) {
+            while(z[k+1] < q) {
+                k++;
+            }
+            int r = v[k];
+            d[q] = (q - r) * (q - r) + f[r];
+        }
+
+        for(int q=0 ; q<n ; q++) {
+            grid[offset + q*stride] = d[q];
+        }
+    }
+}